@@ -1,10 +1,15 @@
 package com.fingerprint.model;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- * Config - Server configuration (serverPort only, webhook URL is in .env)
+ * Config - Server configuration (port and identification scopes, webhook URL is in .env)
  */
 public class Config {
     private int serverPort;
+    private String identificationScope;
+    private List<IdentificationScope> identificationScopes;
 
     public Config() {
         // Defaults
@@ -24,8 +29,28 @@ public class Config {
         this.serverPort = serverPort;
     }
 
+    /**
+     * Scope used by the background identification loop (null = all registrations)
+     */
+    public String getIdentificationScope() {
+        return identificationScope;
+    }
+
+    public void setIdentificationScope(String identificationScope) {
+        this.identificationScope = identificationScope;
+    }
+
+    public List<IdentificationScope> getIdentificationScopes() {
+        return identificationScopes != null ? identificationScopes : new ArrayList<>();
+    }
+
+    public void setIdentificationScopes(List<IdentificationScope> identificationScopes) {
+        this.identificationScopes = identificationScopes;
+    }
+
     @Override
     public String toString() {
-        return "Config{serverPort=" + serverPort + "}";
+        return "Config{serverPort=" + serverPort + ", identificationScope=" + identificationScope
+                + ", identificationScopes=" + getIdentificationScopes().size() + "}";
     }
 }
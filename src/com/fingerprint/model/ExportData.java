@@ -1,5 +1,7 @@
 package com.fingerprint.model;
 
+import java.util.List;
+
 /**
  * ExportData - Protocol for exporting/importing fingerprint data
  */
@@ -50,6 +52,7 @@ public class ExportData {
         private String name;
         private String role;
         private String templateBase64;
+        private List<String> groups;
         private String originalCreatedAt;
 
         public FingerprintData() {
@@ -87,6 +90,14 @@ public class ExportData {
             this.templateBase64 = templateBase64;
         }
 
+        public List<String> getGroups() {
+            return groups;
+        }
+
+        public void setGroups(List<String> groups) {
+            this.groups = groups;
+        }
+
         public String getOriginalCreatedAt() {
             return originalCreatedAt;
         }
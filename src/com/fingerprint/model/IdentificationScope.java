@@ -0,0 +1,90 @@
+package com.fingerprint.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * IdentificationScope - Named subset of registrations a reader is allowed to identify against
+ *
+ * A registration belongs to the scope when its role is one of {@code roles} (or roles is empty)
+ * and it carries at least one of {@code groups} (or groups is empty). {@code threshold} is the
+ * minimum match score accepted for this scope (unset = server default).
+ */
+public class IdentificationScope {
+    private String name;
+    private List<String> roles;
+    private List<String> groups;
+    private Integer threshold;
+
+    public IdentificationScope() {
+        // Default constructor for Gson
+    }
+
+    public IdentificationScope(String name, List<String> roles, List<String> groups) {
+        this.name = name;
+        this.roles = roles;
+        this.groups = groups;
+    }
+
+    /**
+     * Check whether a registration falls inside this scope
+     */
+    public boolean includes(Registration registration) {
+        if (roles != null && !roles.isEmpty()) {
+            if (registration.getRole() == null || !roles.contains(registration.getRole())) {
+                return false;
+            }
+        }
+        if (groups != null && !groups.isEmpty()) {
+            List<String> regGroups = registration.getGroups();
+            if (regGroups == null) {
+                return false;
+            }
+            for (String group : groups) {
+                if (regGroups.contains(group)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // Getters and Setters
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public List<String> getRoles() {
+        return roles != null ? roles : new ArrayList<>();
+    }
+
+    public void setRoles(List<String> roles) {
+        this.roles = roles;
+    }
+
+    public List<String> getGroups() {
+        return groups != null ? groups : new ArrayList<>();
+    }
+
+    public void setGroups(List<String> groups) {
+        this.groups = groups;
+    }
+
+    public Integer getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(Integer threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public String toString() {
+        return "IdentificationScope{name='" + name + "', roles=" + roles + ", groups=" + groups + ", threshold=" + threshold + "}";
+    }
+}
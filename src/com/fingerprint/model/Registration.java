@@ -1,26 +1,26 @@
 package com.fingerprint.model;
 
 import java.time.Instant;
+import java.util.List;
 
 /**
- * Registration - Represents a registered fingerprint with user info
+ * Registration - Metadata of a registered fingerprint (the template is kept in the TemplateStore)
  */
 public class Registration {
     private String id;
     private String name;
     private String role;
-    private String templateBase64;
+    private List<String> groups;
     private String createdAt;
 
     public Registration() {
         // Default constructor for Gson
     }
 
-    public Registration(String id, String name, String role, String templateBase64) {
+    public Registration(String id, String name, String role) {
         this.id = id;
         this.name = name;
         this.role = role;
-        this.templateBase64 = templateBase64;
         this.createdAt = Instant.now().toString();
     }
 
@@ -49,12 +49,12 @@ public class Registration {
         this.role = role;
     }
 
-    public String getTemplateBase64() {
-        return templateBase64;
+    public List<String> getGroups() {
+        return groups;
     }
 
-    public void setTemplateBase64(String templateBase64) {
-        this.templateBase64 = templateBase64;
+    public void setGroups(List<String> groups) {
+        this.groups = groups;
     }
 
     public String getCreatedAt() {
@@ -0,0 +1,224 @@
+package com.fingerprint.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AdmissionControl - Rate and concurrency limits for the expensive endpoints
+ *
+ * Register (sensor time), import (template matching, full file rewrite), the full
+ * fingerprint list, batch identification and top-K identification each get a token bucket
+ * per client (API key name, or IP address when auth is disabled) and a route-wide cap on
+ * requests in flight. Requests over either
+ * limit are rejected immediately rather than queued, so cheap endpoints keep their
+ * threads. Limits are re-read when .env is reloaded.
+ */
+public final class AdmissionControl {
+    private static final Logger log = LoggerFactory.getLogger(AdmissionControl.class);
+
+    // How often a route drops the buckets of clients that have gone quiet
+    private static final long BUCKET_SWEEP_INTERVAL_NANOS = 10_000_000_000L;
+
+    /**
+     * Limits and state for one limited route
+     */
+    public static class Route {
+        final String name;
+        final String method;
+        final String path;
+        final double ratePerSecond;   // per client, 0 = unlimited
+        final int burst;
+        final int maxConcurrent;      // 0 = unlimited
+        final boolean byHandler;      // admitted by the route handler (depends on the body), not by path
+        final Semaphore inFlight;
+        final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+        final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+        final AtomicLong admitted = new AtomicLong();
+        final AtomicLong rateLimited = new AtomicLong();
+        final AtomicLong concurrencyLimited = new AtomicLong();
+
+        Route(String name, String method, String path, double ratePerSecond, int burst, int maxConcurrent,
+              boolean byHandler) {
+            this.name = name;
+            this.method = method;
+            this.path = path;
+            this.ratePerSecond = ratePerSecond;
+            this.burst = Math.max(1, burst);
+            this.maxConcurrent = maxConcurrent;
+            this.byHandler = byHandler;
+            this.inFlight = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+        }
+
+        /**
+         * Release the concurrency slot taken by {@link AdmissionControl#admit}
+         */
+        public void release() {
+            if (inFlight != null) {
+                inFlight.release();
+            }
+        }
+    }
+
+    /**
+     * Outcome of an admission check
+     */
+    public static class Decision {
+        public final Route route;        // route to release afterwards, null if not limited
+        public final String error;       // null if admitted
+        public final long retryAfterMs;
+
+        Decision(Route route, String error, long retryAfterMs) {
+            this.route = route;
+            this.error = error;
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        public boolean isAdmitted() {
+            return error == null;
+        }
+    }
+
+    private static final Decision UNLIMITED = new Decision(null, null, 0);
+
+    private volatile List<Route> routes = new ArrayList<>();
+
+    public AdmissionControl() {
+        reload();
+        EnvLoader.addReloadListener(this::reload);
+    }
+
+    /**
+     * Re-read the limits. Requests in flight release their slot on the route they acquired.
+     */
+    public void reload() {
+        List<Route> next = new ArrayList<>();
+        next.add(route("register", "POST", "/api/register", "REGISTER", 1, 1, false));
+        next.add(route("import", "POST", "/api/fingerprints/import", "IMPORT", 10, 2, false));
+        next.add(route("list", "GET", "/api/fingerprints", "LIST", 2, 4, false));
+        next.add(route("identify-batch", "POST", "/api/identify/batch", "IDENTIFY_BATCH", 1, 1, false));
+        // Only topK > 1 sweeps the scope, so the handler admits these once it has read the body
+        next.add(route("identify-top-k", "POST", "/api/identify", "IDENTIFY_TOP_K", 2, 2, true));
+        routes = next;
+    }
+
+    private static Route route(String name, String method, String path, String prefix,
+                               double defaultRate, int defaultConcurrent, boolean byHandler) {
+        double rate = parseRate(prefix + "_RATE_LIMIT", defaultRate);
+        int burst = EnvLoader.getInt(prefix + "_RATE_BURST", Math.max(1, (int) Math.ceil(rate)));
+        int concurrent = EnvLoader.getInt(prefix + "_MAX_CONCURRENT", defaultConcurrent);
+        return new Route(name, method, path, rate, burst, concurrent, byHandler);
+    }
+
+    private static double parseRate(String key, double defaultValue) {
+        String value = EnvLoader.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid rate for {}: {}, using {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    // ==================== Admission ====================
+
+    /**
+     * Check the client's rate limit and take a concurrency slot for a limited route.
+     * An admitted decision with a route must be released when the request completes.
+     */
+    public Decision admit(String method, String path, String client) {
+        for (Route r : routes) {
+            if (!r.byHandler && r.method.equals(method) && r.path.equals(path)) {
+                return admit(r, client);
+            }
+        }
+        return UNLIMITED;
+    }
+
+    /**
+     * Same as {@link #admit(String, String, String)}, for a route the handler admits by name
+     */
+    public Decision admitRoute(String name, String client) {
+        for (Route r : routes) {
+            if (r.name.equals(name)) {
+                return admit(r, client);
+            }
+        }
+        return UNLIMITED;
+    }
+
+    private Decision admit(Route route, String client) {
+        if (route.ratePerSecond > 0) {
+            sweepBuckets(route);
+            final Route r = route;
+            TokenBucket bucket = route.buckets.computeIfAbsent(client, c -> new TokenBucket(r.ratePerSecond, r.burst));
+            long waitMs = bucket.tryAcquire();
+            if (waitMs > 0) {
+                route.rateLimited.incrementAndGet();
+                return new Decision(null, "Too many " + route.name + " requests, retry later", waitMs);
+            }
+        }
+
+        if (route.inFlight != null && !route.inFlight.tryAcquire()) {
+            route.concurrencyLimited.incrementAndGet();
+            return new Decision(null, "Too many concurrent " + route.name + " requests, retry later", 1000);
+        }
+
+        route.admitted.incrementAndGet();
+        return new Decision(route, null, 0);
+    }
+
+    /**
+     * Drop buckets that have refilled to their burst, so a route holds one per recent client
+     * rather than one per client ever seen. A full bucket is the same as a new one.
+     */
+    private static void sweepBuckets(Route route) {
+        long now = System.nanoTime();
+        long last = route.lastSweep.get();
+        if (now - last >= BUCKET_SWEEP_INTERVAL_NANOS && route.lastSweep.compareAndSet(last, now)) {
+            route.buckets.values().removeIf(TokenBucket::isFull);
+        }
+    }
+
+    // ==================== Stats ====================
+
+    public static class RouteStats {
+        public String route;
+        public double ratePerSecond;
+        public int burst;
+        public int maxConcurrent;
+        public int inFlight;
+        public int clients;
+        public long admitted;
+        public long rateLimited;
+        public long concurrencyLimited;
+    }
+
+    public Map<String, RouteStats> getStats() {
+        Map<String, RouteStats> stats = new LinkedHashMap<>();
+        for (Route r : routes) {
+            RouteStats s = new RouteStats();
+            s.route = r.method + " " + r.path;
+            s.ratePerSecond = r.ratePerSecond;
+            s.burst = r.burst;
+            s.maxConcurrent = r.maxConcurrent;
+            s.inFlight = r.inFlight != null ? r.maxConcurrent - r.inFlight.availablePermits() : 0;
+            s.clients = r.buckets.size();
+            s.admitted = r.admitted.get();
+            s.rateLimited = r.rateLimited.get();
+            s.concurrencyLimited = r.concurrencyLimited.get();
+            stats.put(r.name, s);
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,298 @@
+package com.fingerprint.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AuthService - API key authentication, scopes and per-key rate limits
+ *
+ * Keys come from INTERNAL_KEY (admin) and API_KEYS, a comma-separated list of
+ * {@code name:key:scope[:requestsPerSecond]} entries, e.g.
+ * {@code kiosk:abc123:read,hr-sync:def456:enroll:5}. They are resolved once into SHA-256
+ * digests, so each request costs one digest and constant-time comparisons instead of
+ * environment lookups. The key set is rebuilt when .env is reloaded.
+ */
+public final class AuthService {
+    private static final Logger log = LoggerFactory.getLogger(AuthService.class);
+
+    private static final String PLACEHOLDER_KEY = "your-internal-api-key-here";
+    private static final int HEADER_CACHE_LIMIT = 256;
+
+    /**
+     * Access levels, each including the ones before it
+     */
+    public enum Scope {
+        READ, ENROLL, ADMIN;
+
+        public boolean allows(Scope required) {
+            return compareTo(required) >= 0;
+        }
+
+        public String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    public static class ApiKey {
+        public final String name;
+        public final Scope scope;
+        private final byte[] digest;
+        private final TokenBucket rateLimit; // null = unlimited
+        private final Counters counters;
+
+        ApiKey(String name, String secret, Scope scope, int requestsPerSecond, Counters counters) {
+            this.name = name;
+            this.scope = scope;
+            this.digest = sha256(secret);
+            this.rateLimit = requestsPerSecond > 0 ? new TokenBucket(requestsPerSecond, requestsPerSecond) : null;
+            this.counters = counters;
+        }
+    }
+
+    /**
+     * Request counters for one key name, kept across reloads
+     */
+    private static class Counters {
+        final AtomicLong allowed = new AtomicLong();
+        final AtomicLong forbidden = new AtomicLong();
+        final AtomicLong rateLimited = new AtomicLong();
+    }
+
+    /**
+     * Outcome of an authorization check
+     */
+    public static class Result {
+        public final int status;          // 200 = allowed
+        public final String error;
+        public final ApiKey key;          // null if auth is disabled or the key is unknown
+        public final long retryAfterMs;
+
+        Result(int status, String error, ApiKey key, long retryAfterMs) {
+            this.status = status;
+            this.error = error;
+            this.key = key;
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        public boolean isAllowed() {
+            return status == 200;
+        }
+    }
+
+    private static final Result OPEN = new Result(200, null, null, 0);
+
+    private static final class KeySet {
+        final ApiKey[] keys;
+        // "Bearer <key>" header value -> key, only for headers that matched
+        final Map<String, ApiKey> headerCache = new ConcurrentHashMap<>();
+
+        KeySet(List<ApiKey> keys) {
+            this.keys = keys.toArray(new ApiKey[0]);
+        }
+    }
+
+    private volatile KeySet keySet = new KeySet(Collections.emptyList());
+    private final Map<String, Counters> countersByName = new ConcurrentHashMap<>();
+    private final AtomicLong missingHeader = new AtomicLong();
+    private final AtomicLong invalidKey = new AtomicLong();
+
+    public AuthService() {
+        reload();
+        EnvLoader.addReloadListener(this::reload);
+    }
+
+    // ==================== Key Set ====================
+
+    /**
+     * Rebuild the key set from INTERNAL_KEY and API_KEYS
+     */
+    public void reload() {
+        List<ApiKey> keys = new ArrayList<>();
+
+        String internalKey = EnvLoader.get("INTERNAL_KEY");
+        if (internalKey != null && !internalKey.isEmpty() && !internalKey.equals(PLACEHOLDER_KEY)) {
+            keys.add(new ApiKey("internal", internalKey, Scope.ADMIN,
+                    EnvLoader.getInt("INTERNAL_KEY_RATE_LIMIT", 0), counters("internal")));
+        }
+
+        String apiKeys = EnvLoader.get("API_KEYS", "");
+        for (String entry : apiKeys.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+
+            String[] parts = entry.split(":");
+            if (parts.length < 3 || parts[0].trim().isEmpty() || parts[1].trim().isEmpty()) {
+                log.warn("Ignoring malformed API_KEYS entry (expected name:key:scope[:rps])");
+                continue;
+            }
+            String name = parts[0].trim();
+            Scope scope;
+            try {
+                scope = Scope.valueOf(parts[2].trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warn("Unknown scope '{}' for key {}, skipping", parts[2].trim(), name);
+                continue;
+            }
+            int rps = 0;
+            if (parts.length > 3) {
+                try {
+                    rps = Integer.parseInt(parts[3].trim());
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid rate limit for key {}, using unlimited", name);
+                }
+            }
+            keys.add(new ApiKey(name, parts[1].trim(), scope, rps, counters(name)));
+        }
+
+        keySet = new KeySet(keys);
+        if (keys.isEmpty()) {
+            log.info("No API keys configured, authentication disabled");
+        } else {
+            log.info("Loaded {} API key(s)", keys.size());
+        }
+    }
+
+    private Counters counters(String name) {
+        return countersByName.computeIfAbsent(name, n -> new Counters());
+    }
+
+    public boolean isEnabled() {
+        return keySet.keys.length > 0;
+    }
+
+    // ==================== Checks ====================
+
+    /**
+     * Authenticate the Authorization header and check the key's scope and rate limit
+     */
+    public Result check(String authHeader, Scope required) {
+        KeySet current = keySet;
+        if (current.keys.length == 0) {
+            // No auth configured, allow all
+            return OPEN;
+        }
+
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            missingHeader.incrementAndGet();
+            return new Result(401, "Missing or invalid Authorization header", null, 0);
+        }
+
+        ApiKey key = current.headerCache.get(authHeader);
+        if (key == null) {
+            key = match(current, authHeader.substring(7));
+            if (key == null) {
+                invalidKey.incrementAndGet();
+                return new Result(403, "Invalid API key", null, 0);
+            }
+            if (current.headerCache.size() < HEADER_CACHE_LIMIT) {
+                current.headerCache.put(authHeader, key);
+            }
+        }
+
+        if (!key.scope.allows(required)) {
+            key.counters.forbidden.incrementAndGet();
+            return new Result(403, "API key '" + key.name + "' does not have the " + required.label() + " scope", key, 0);
+        }
+
+        if (key.rateLimit != null) {
+            long waitMs = key.rateLimit.tryAcquire();
+            if (waitMs > 0) {
+                key.counters.rateLimited.incrementAndGet();
+                return new Result(429, "Rate limit exceeded for API key '" + key.name + "'", key, waitMs);
+            }
+        }
+
+        key.counters.allowed.incrementAndGet();
+        return new Result(200, null, key, 0);
+    }
+
+    /**
+     * Compare against every key without stopping at the first match, so timing does not
+     * reveal which key (or how much of it) matched
+     */
+    private static ApiKey match(KeySet current, String providedKey) {
+        byte[] provided = sha256(providedKey);
+        ApiKey found = null;
+        for (ApiKey key : current.keys) {
+            if (MessageDigest.isEqual(provided, key.digest) && found == null) {
+                found = key;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Scope needed for an API request
+     */
+    public static Scope requiredScope(String method, String path) {
+        if (method.equals("DELETE")
+                || (method.equals("PUT") && path.startsWith("/api/config"))
+                || path.startsWith("/api/auth/")
+                || path.startsWith("/api/dedup/")
+                || path.startsWith("/api/replication/")
+                || path.startsWith("/api/cluster/")
+                || path.startsWith("/api/jfr/")
+                || path.endsWith("/export")) {
+            return Scope.ADMIN;
+        }
+        if (method.equals("GET")) {
+            return Scope.READ;
+        }
+        return Scope.ENROLL;
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // ==================== Stats ====================
+
+    public static class KeyStats {
+        public String name;
+        public String scope;
+        public double rateLimitPerSecond;
+        public long allowed;
+        public long forbidden;
+        public long rateLimited;
+    }
+
+    public static class Stats {
+        public boolean enabled;
+        public long missingHeader;
+        public long invalidKey;
+        public List<KeyStats> keys = new ArrayList<>();
+    }
+
+    public Stats getStats() {
+        Stats s = new Stats();
+        KeySet current = keySet;
+        s.enabled = current.keys.length > 0;
+        s.missingHeader = missingHeader.get();
+        s.invalidKey = invalidKey.get();
+        for (ApiKey key : current.keys) {
+            KeyStats ks = new KeyStats();
+            ks.name = key.name;
+            ks.scope = key.scope.label();
+            ks.rateLimitPerSecond = key.rateLimit != null ? key.rateLimit.getRatePerSecond() : 0;
+            ks.allowed = key.counters.allowed.get();
+            ks.forbidden = key.counters.forbidden.get();
+            ks.rateLimited = key.counters.rateLimited.get();
+            s.keys.add(ks);
+        }
+        return s;
+    }
+}
@@ -0,0 +1,252 @@
+package com.fingerprint.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CaptureArchiver - Writes enrollment capture images on a background thread
+ *
+ * The enrollment path only copies the image into a pooled {@link CaptureSlot} and queues
+ * it; the disk write happens here and the slot is released afterwards. Images are dropped
+ * (and counted) if the bounded queue is full, since losing an archive image is better than
+ * making the person at the reader wait.
+ */
+public class CaptureArchiver {
+    private static final Logger log = LoggerFactory.getLogger(CaptureArchiver.class);
+
+    public enum Format { BMP, PNG, NONE }
+
+    private static final int BMP_HEADER_SIZE = 54 + 1024; // file + info header, grayscale palette
+
+    private final Format format;
+    private final BlockingQueue<CaptureSlot> queue;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // Writer-thread state, reused across images of the same size
+    private int headerWidth = -1;
+    private int headerHeight = -1;
+    private byte[] bmpHeader;
+    private ByteBuffer fileBuffer;
+
+    // Metrics
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    public CaptureArchiver(Format format, int queueCapacity) {
+        this.format = format;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.writerThread = new Thread(this::writerLoop, "CaptureArchiverThread");
+        this.writerThread.setDaemon(true);
+        if (format != Format.NONE) {
+            writerThread.start();
+        }
+    }
+
+    /**
+     * Parse CAPTURE_ARCHIVE_FORMAT (bmp, png or none), defaulting to BMP
+     */
+    public static Format parseFormat(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return Format.BMP;
+        }
+        try {
+            return Format.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown archive format '{}', using BMP", value);
+            return Format.BMP;
+        }
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Queue a slot's image for archiving. The slot now belongs to the archiver, which releases
+     * it after writing (or right away if the image is not queued).
+     * @return false if archiving is disabled or the queue is full
+     */
+    public boolean submit(CaptureSlot slot, String dirPath, String baseName) {
+        if (format == Format.NONE || !running) {
+            slot.release();
+            return false;
+        }
+        slot.dirPath = dirPath;
+        slot.baseName = baseName;
+        if (!queue.offer(slot)) {
+            dropped.incrementAndGet();
+            log.warn("Queue full, dropped {} for {}", baseName, dirPath);
+            slot.release();
+            return false;
+        }
+        return true;
+    }
+
+    private void writerLoop() {
+        while (running || !queue.isEmpty()) {
+            CaptureSlot job;
+            try {
+                job = queue.poll(500, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (job == null) {
+                continue;
+            }
+
+            long start = System.nanoTime();
+            try {
+                File dir = new File(job.dirPath);
+                if (!dir.exists()) {
+                    dir.mkdirs();
+                }
+                String path;
+                if (format == Format.PNG) {
+                    path = job.dirPath + "/" + job.baseName + ".png";
+                    writePng(job, path);
+                } else {
+                    path = job.dirPath + "/" + job.baseName + ".bmp";
+                    writeBmp(job, path);
+                }
+                writeNanos.addAndGet(System.nanoTime() - start);
+                written.incrementAndGet();
+                log.debug("Saved {}", path);
+            } catch (IOException e) {
+                failed.incrementAndGet();
+                log.error("Failed to save {}: {}", job.baseName, e.getMessage());
+            } finally {
+                job.release();
+            }
+        }
+    }
+
+    // ==================== BMP ====================
+
+    private void writeBmp(CaptureSlot job, String path) throws IOException {
+        int stride = ((job.width + 3) / 4) * 4;
+        int fileSize = BMP_HEADER_SIZE + stride * job.height;
+
+        if (job.width != headerWidth || job.height != headerHeight) {
+            bmpHeader = buildBmpHeader(job.width, job.height);
+            headerWidth = job.width;
+            headerHeight = job.height;
+        }
+        if (fileBuffer == null || fileBuffer.capacity() != fileSize) {
+            // Padding bytes stay zero, rows only overwrite the pixel columns
+            fileBuffer = ByteBuffer.allocate(fileSize);
+        }
+
+        byte[] out = fileBuffer.array();
+        System.arraycopy(bmpHeader, 0, out, 0, BMP_HEADER_SIZE);
+        // Rows are stored bottom-up
+        for (int row = 0; row < job.height; row++) {
+            System.arraycopy(job.image, (job.height - 1 - row) * job.width,
+                    out, BMP_HEADER_SIZE + row * stride, job.width);
+        }
+
+        fileBuffer.clear();
+        try (FileChannel channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (fileBuffer.hasRemaining()) {
+                channel.write(fileBuffer);
+            }
+        }
+    }
+
+    /**
+     * 8-bit grayscale BMP file header, info header and palette for the given dimensions
+     */
+    static byte[] buildBmpHeader(int width, int height) {
+        int stride = ((width + 3) / 4) * 4;
+        ByteBuffer header = ByteBuffer.allocate(BMP_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        // BITMAPFILEHEADER
+        header.put((byte) 'B').put((byte) 'M');
+        header.putInt(BMP_HEADER_SIZE + stride * height); // bfSize
+        header.putShort((short) 0);                        // bfReserved1
+        header.putShort((short) 0);                        // bfReserved2
+        header.putInt(BMP_HEADER_SIZE);                    // bfOffBits
+
+        // BITMAPINFOHEADER
+        header.putInt(40);                                 // biSize
+        header.putInt(width);
+        header.putInt(height);
+        header.putShort((short) 1);                        // biPlanes
+        header.putShort((short) 8);                        // biBitCount
+        header.putInt(0);                                  // biCompression
+        header.putInt(stride * height);                    // biSizeImage
+        header.putInt(0);                                  // biXPelsPerMeter
+        header.putInt(0);                                  // biYPelsPerMeter
+        header.putInt(0);                                  // biClrUsed
+        header.putInt(0);                                  // biClrImportant
+
+        // Grayscale palette
+        for (int i = 0; i < 256; i++) {
+            header.put((byte) i).put((byte) i).put((byte) i).put((byte) 0);
+        }
+        return header.array();
+    }
+
+    // ==================== PNG ====================
+
+    private void writePng(CaptureSlot job, String path) throws IOException {
+        BufferedImage image = new BufferedImage(job.width, job.height, BufferedImage.TYPE_BYTE_GRAY);
+        image.getRaster().setDataElements(0, 0, job.width, job.height, job.image);
+        if (!ImageIO.write(image, "png", new File(path))) {
+            throw new IOException("No PNG writer available");
+        }
+    }
+
+    // ==================== Lifecycle / Metrics ====================
+
+    /**
+     * Stop accepting images and wait briefly for queued ones to be written
+     */
+    public void shutdown() {
+        running = false;
+        if (writerThread.isAlive()) {
+            try {
+                writerThread.join(5000);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        }
+    }
+
+    public static class Stats {
+        public String format;
+        public int queued;
+        public long written;
+        public long dropped;
+        public long failed;
+        public double avgWriteMicros;
+    }
+
+    public Stats getStats() {
+        Stats s = new Stats();
+        s.format = format.name().toLowerCase();
+        s.queued = queue.size();
+        s.written = written.get();
+        s.dropped = dropped.get();
+        s.failed = failed.get();
+        s.avgWriteMicros = s.written > 0 ? writeNanos.get() / 1000.0 / s.written : 0.0;
+        return s;
+    }
+}
@@ -0,0 +1,88 @@
+package com.fingerprint.server;
+
+/**
+ * CaptureQuality - Quick image quality estimate for a raw fingerprint capture
+ *
+ * The image is split into 16x16 blocks. Blocks with enough gray-level variation are
+ * treated as fingerprint area (ridges); flat blocks are background or smudge. The score
+ * (0-100) combines:
+ *   coverage  - share of the image covered by fingerprint blocks (finger placed fully)
+ *   contrast  - average standard deviation inside those blocks (ridge/valley separation)
+ *   sharpness - average gradient magnitude inside those blocks (focus, no smearing)
+ *
+ * It is a heuristic for ranking captures of the same finger against each other, not an
+ * NFIQ-style absolute measure.
+ */
+public final class CaptureQuality {
+    private static final int BLOCK = 16;
+    private static final double FOREGROUND_STDDEV = 12.0;
+    private static final double FULL_CONTRAST_STDDEV = 60.0;
+    private static final double FULL_SHARPNESS_GRADIENT = 50.0;
+
+    public final int score;
+    public final double coverage;
+    public final double contrast;
+    public final double sharpness;
+
+    private CaptureQuality(int score, double coverage, double contrast, double sharpness) {
+        this.score = score;
+        this.coverage = coverage;
+        this.contrast = contrast;
+        this.sharpness = sharpness;
+    }
+
+    /**
+     * Score an 8-bit grayscale image of the given size
+     */
+    public static CaptureQuality of(byte[] image, int width, int height) {
+        int blocksX = width / BLOCK;
+        int blocksY = height / BLOCK;
+        if (image == null || blocksX == 0 || blocksY == 0) {
+            return new CaptureQuality(0, 0, 0, 0);
+        }
+
+        int foreground = 0;
+        double stdDevSum = 0;
+        double gradientSum = 0;
+        for (int by = 0; by < blocksY; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                int x0 = bx * BLOCK;
+                int y0 = by * BLOCK;
+
+                long sum = 0;
+                long sumSq = 0;
+                long gradient = 0;
+                for (int y = y0; y < y0 + BLOCK; y++) {
+                    int row = y * width;
+                    for (int x = x0; x < x0 + BLOCK; x++) {
+                        int p = image[row + x] & 0xFF;
+                        sum += p;
+                        sumSq += p * p;
+                        // Forward differences, clamped at the image edge
+                        int right = x + 1 < width ? image[row + x + 1] & 0xFF : p;
+                        int down = y + 1 < height ? image[row + width + x] & 0xFF : p;
+                        gradient += Math.abs(right - p) + Math.abs(down - p);
+                    }
+                }
+
+                int n = BLOCK * BLOCK;
+                double mean = (double) sum / n;
+                double stdDev = Math.sqrt(Math.max(0, (double) sumSq / n - mean * mean));
+                if (stdDev >= FOREGROUND_STDDEV) {
+                    foreground++;
+                    stdDevSum += stdDev;
+                    gradientSum += (double) gradient / n;
+                }
+            }
+        }
+
+        if (foreground == 0) {
+            return new CaptureQuality(0, 0, 0, 0);
+        }
+        double coverage = (double) foreground / (blocksX * blocksY);
+        double contrast = Math.min(1.0, stdDevSum / foreground / FULL_CONTRAST_STDDEV);
+        double sharpness = Math.min(1.0, gradientSum / foreground / FULL_SHARPNESS_GRADIENT);
+        int score = (int) Math.round(100 * (0.4 * coverage + 0.3 * contrast + 0.3 * sharpness));
+        return new CaptureQuality(score, coverage, contrast, sharpness);
+    }
+}
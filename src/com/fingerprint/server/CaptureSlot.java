@@ -0,0 +1,107 @@
+package com.fingerprint.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CaptureSlot - Preallocated buffers for one fingerprint capture
+ *
+ * Holds everything a capture needs on its way through the pipeline (sensor image, template,
+ * SDK out-parameters and the archive destination), so the scan loop and enrollment do not
+ * allocate per capture. Slots come from a fixed {@link Pool} and go back to it with
+ * {@link #release()} once the last stage (usually the capture archiver) is done with them.
+ */
+public class CaptureSlot {
+    public static final int TEMPLATE_SIZE = 2048;
+
+    public final byte[] image;
+    public final int width;
+    public final int height;
+    public final byte[] template = new byte[TEMPLATE_SIZE];
+    public final int[] templateLen = new int[1];
+
+    // DBIdentify out-parameters
+    public final int[] fid = new int[1];
+    public final int[] score = new int[1];
+
+    // Archive destination, set when the slot is handed to the archiver
+    String dirPath;
+    String baseName;
+
+    private final Pool pool;
+
+    private CaptureSlot(Pool pool, int width, int height) {
+        this.pool = pool;
+        this.width = width;
+        this.height = height;
+        this.image = new byte[width * height];
+    }
+
+    /**
+     * Reset the template length before handing the slot to AcquireFingerprint
+     */
+    public void prepareCapture() {
+        templateLen[0] = TEMPLATE_SIZE;
+    }
+
+    /**
+     * Copy the image of another slot into this one (for archiving while the source keeps capturing)
+     */
+    public void copyImageFrom(CaptureSlot source) {
+        System.arraycopy(source.image, 0, image, 0, image.length);
+    }
+
+    /**
+     * Return the slot to its pool
+     */
+    public void release() {
+        dirPath = null;
+        baseName = null;
+        pool.release(this);
+    }
+
+    /**
+     * Fixed set of slots; acquisition never allocates and never blocks
+     */
+    public static class Pool {
+        private final BlockingQueue<CaptureSlot> free;
+        private final int size;
+        private final AtomicLong exhausted = new AtomicLong();
+
+        public Pool(int size, int width, int height) {
+            this.size = Math.max(1, size);
+            this.free = new ArrayBlockingQueue<>(this.size);
+            for (int i = 0; i < this.size; i++) {
+                free.add(new CaptureSlot(this, width, height));
+            }
+        }
+
+        /**
+         * Take a free slot, or null if all slots are in use
+         */
+        public CaptureSlot tryAcquire() {
+            CaptureSlot slot = free.poll();
+            if (slot == null) {
+                exhausted.incrementAndGet();
+            }
+            return slot;
+        }
+
+        void release(CaptureSlot slot) {
+            free.offer(slot);
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getFree() {
+            return free.size();
+        }
+
+        public long getExhausted() {
+            return exhausted.get();
+        }
+    }
+}
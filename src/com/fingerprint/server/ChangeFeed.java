@@ -0,0 +1,349 @@
+package com.fingerprint.server;
+
+import com.fingerprint.model.Registration;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ChangeFeed - Ordered log of registration adds and deletes, for incremental sync
+ *
+ * Every write to StorageService already bumps the snapshot version, so that version is the
+ * change sequence: change N turns version N-1 into version N. The most recent changes are
+ * kept in a bounded in-memory ring; every change is also appended to a JSON-lines journal,
+ * which serves clients that have fallen behind the ring and restores the ring on startup.
+ * The journal is trimmed to its newest half once it holds {@code journalMax} changes.
+ *
+ * Changes after {@code floorSeq} are all available. A client asking for anything older
+ * (or for a sequence this server has not reached) is told to resync from a full listing.
+ */
+public class ChangeFeed {
+    private static final Logger log = LoggerFactory.getLogger(ChangeFeed.class);
+
+    public static final String ADD = "add";
+    public static final String DELETE = "delete";
+
+    private final Gson gson = new GsonBuilder().create();
+    private final Path journalPath;
+    private final int ringCapacity;
+    private final int journalMax;
+
+    // Guarded by this
+    private final ArrayDeque<Change> ring = new ArrayDeque<>();
+    private long floorSeq;
+    private long latestSeq;
+    private int journalEntries = 0;
+
+    // Metrics
+    private final AtomicLong readsFromRing = new AtomicLong();
+    private final AtomicLong readsFromJournal = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+    private final AtomicLong waiting = new AtomicLong();
+
+    /**
+     * One add or delete. For deletes, {@code registration} is the metadata that was removed.
+     */
+    public static class Change {
+        public long seq;
+        public String type;
+        public String id;
+        public Registration registration;
+        public String at;
+
+        public Change() {
+            // Default constructor for Gson
+        }
+
+        Change(long seq, String type, Registration registration) {
+            this.seq = seq;
+            this.type = type;
+            this.id = registration.getId();
+            this.registration = registration;
+            this.at = Instant.now().toString();
+        }
+    }
+
+    /**
+     * @param currentSeq Version of the registrations on disk; the journal must end there to be used
+     */
+    public ChangeFeed(Path journalPath, int ringCapacity, int journalMax, long currentSeq) {
+        this.journalPath = journalPath;
+        this.ringCapacity = Math.max(1, ringCapacity);
+        this.journalMax = Math.max(this.ringCapacity, journalMax);
+        this.floorSeq = currentSeq;
+        this.latestSeq = currentSeq;
+        loadJournal(currentSeq);
+    }
+
+    private synchronized void loadJournal(long currentSeq) {
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+        List<Change> changes = readJournal(-1, Long.MAX_VALUE, Integer.MAX_VALUE);
+        if (changes.isEmpty()) {
+            return;
+        }
+        if (changes.get(changes.size() - 1).seq != currentSeq) {
+            // Written by a different storage state (restored backup, older version without a
+            // journal); nothing in it can be trusted to be complete, so start over from here
+            log.warn("Change journal does not end at v{}, starting a new one", currentSeq);
+            rewriteJournal(new ArrayList<>());
+            return;
+        }
+        changes = changes.subList(lastRunStart(changes), changes.size());
+        floorSeq = changes.get(0).seq - 1;
+        journalEntries = changes.size();
+        for (Change change : changes.subList(Math.max(0, changes.size() - ringCapacity), changes.size())) {
+            ring.addLast(change);
+        }
+        log.info("Change journal loaded: seq {}..{}", floorSeq + 1, latestSeq);
+    }
+
+    /**
+     * Record a change. Called by StorageService under its write lock, so sequences arrive in order.
+     */
+    synchronized void append(long seq, String type, Registration registration) {
+        Change change = new Change(seq, type, registration);
+        ring.addLast(change);
+        if (ring.size() > ringCapacity) {
+            ring.removeFirst();
+        }
+        latestSeq = seq;
+
+        try (Writer writer = Files.newBufferedWriter(journalPath, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(gson.toJson(change));
+            writer.write('\n');
+            journalEntries++;
+        } catch (IOException e) {
+            // Older changes can no longer be served from the journal without a gap
+            log.error("Error writing change journal: {}", e.getMessage());
+            floorSeq = ring.peekFirst().seq - 1;
+        }
+        if (journalEntries > journalMax) {
+            compactJournal();
+        }
+        notifyAll();
+    }
+
+    // ==================== Reads ====================
+
+    public static class Page {
+        public long since;
+        public long latestSeq;
+        // Pass as the next "since"
+        public long nextSince;
+        public boolean hasMore;
+        // The requested history is gone; list all registrations and continue from that listing's sequence
+        public boolean resync;
+        public List<Change> changes;
+    }
+
+    /**
+     * Changes after {@code since}, oldest first. If there are none yet, waits up to {@code waitMs}
+     * for the next one. Reads that fall behind the ring parse the journal without holding the
+     * lock, so they do not hold up append() and with it every registration write.
+     */
+    public Page read(long since, int limit, long waitMs) throws InterruptedException {
+        Page page = new Page();
+        page.since = since;
+        List<Change> changes = new ArrayList<>();
+        boolean fromJournal = false;
+        synchronized (this) {
+            if (since == latestSeq && waitMs > 0) {
+                waiting.incrementAndGet();
+                try {
+                    long deadline = System.currentTimeMillis() + waitMs;
+                    long remaining = waitMs;
+                    while (since == latestSeq && remaining > 0) {
+                        wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                } finally {
+                    waiting.decrementAndGet();
+                }
+            }
+
+            page.latestSeq = latestSeq;
+            if (since < floorSeq || since > latestSeq) {
+                resyncs.incrementAndGet();
+                page.resync = true;
+                page.nextSince = latestSeq;
+                page.changes = changes;
+                return page;
+            }
+
+            Change oldestInRing = ring.peekFirst();
+            if (oldestInRing != null && since >= oldestInRing.seq - 1) {
+                readsFromRing.incrementAndGet();
+                for (Change change : ring) {
+                    if (change.seq > since) {
+                        changes.add(change);
+                        if (changes.size() >= limit) {
+                            break;
+                        }
+                    }
+                }
+            } else if (since < latestSeq) {
+                fromJournal = true;
+            }
+        }
+
+        if (fromJournal) {
+            // Everything in (since, latestSeq] was in the journal when the lock was released;
+            // appends after that only add lines past page.latestSeq
+            readsFromJournal.incrementAndGet();
+            changes = readJournal(since, page.latestSeq, limit);
+            if (changes.isEmpty() || !isContiguous(since, changes)) {
+                // Trimmed by a compaction in the meantime, or crosses a gap left by a failed append
+                resyncs.incrementAndGet();
+                page.resync = true;
+                page.nextSince = page.latestSeq;
+                page.changes = new ArrayList<>();
+                return page;
+            }
+        }
+        page.changes = changes;
+        page.nextSince = changes.isEmpty() ? since : changes.get(changes.size() - 1).seq;
+        page.hasMore = page.nextSince < page.latestSeq;
+        return page;
+    }
+
+    public synchronized long getLatestSeq() {
+        return latestSeq;
+    }
+
+    // ==================== Journal ====================
+
+    /**
+     * Journal changes in (since, upTo], at most {@code limit}. Safe without the lock: a
+     * compaction replaces the file by rename, so an open reader keeps the old one, and a line
+     * being appended is past {@code upTo}.
+     */
+    private List<Change> readJournal(long since, long upTo, int limit) {
+        List<Change> changes = new ArrayList<>();
+        if (!Files.exists(journalPath)) {
+            return changes;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null && changes.size() < limit) {
+                if (line.isEmpty()) continue;
+                Change change = gson.fromJson(line, Change.class);
+                if (change == null) continue;
+                if (change.seq > upTo) {
+                    break;
+                }
+                if (change.seq > since) {
+                    changes.add(change);
+                }
+            }
+        } catch (IOException | JsonParseException e) {
+            // A torn last line after a crash; what was read before it is still valid
+            log.error("Error reading change journal: {}", e.getMessage());
+        }
+        return changes;
+    }
+
+    /**
+     * Index where the run of consecutive sequences at the end of the journal starts. Anything
+     * before the last gap (left by a failed append) cannot be served without skipping a change.
+     */
+    private static int lastRunStart(List<Change> changes) {
+        int start = changes.size() - 1;
+        while (start > 0 && changes.get(start - 1).seq == changes.get(start).seq - 1) {
+            start--;
+        }
+        return Math.max(0, start);
+    }
+
+    private static boolean isContiguous(long since, List<Change> changes) {
+        long expected = since + 1;
+        for (Change change : changes) {
+            if (change.seq != expected++) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keep the newest half of the journal (never less than the ring), and nothing before a gap
+     */
+    private void compactJournal() {
+        int keep = Math.max(ringCapacity, journalMax / 2);
+        List<Change> changes = readJournal(-1, Long.MAX_VALUE, Integer.MAX_VALUE);
+        int start = Math.max(lastRunStart(changes), changes.size() - keep);
+        List<Change> kept = new ArrayList<>(changes.subList(start, changes.size()));
+        if (rewriteJournal(kept) && !kept.isEmpty()) {
+            // Never reopen history a failed append already put out of reach
+            floorSeq = Math.max(floorSeq, kept.get(0).seq - 1);
+            log.info("Change journal trimmed to seq {}..{}", floorSeq + 1, latestSeq);
+        }
+    }
+
+    private boolean rewriteJournal(List<Change> changes) {
+        Path tmp = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Change change : changes) {
+                    writer.write(gson.toJson(change));
+                    writer.write('\n');
+                }
+            }
+            Files.move(tmp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journalEntries = changes.size();
+            return true;
+        } catch (IOException e) {
+            log.error("Error rewriting change journal: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    // ==================== Metrics ====================
+
+    public static class Stats {
+        public long floorSeq;
+        public long latestSeq;
+        public int ringSize;
+        public int ringCapacity;
+        public int journalEntries;
+        public long readsFromRing;
+        public long readsFromJournal;
+        public long resyncs;
+        public long waiting;
+    }
+
+    public Stats getStats() {
+        Stats s = new Stats();
+        synchronized (this) {
+            s.floorSeq = floorSeq;
+            s.latestSeq = latestSeq;
+            s.ringSize = ring.size();
+            s.journalEntries = journalEntries;
+        }
+        s.ringCapacity = ringCapacity;
+        s.readsFromRing = readsFromRing.get();
+        s.readsFromJournal = readsFromJournal.get();
+        s.resyncs = resyncs.get();
+        s.waiting = waiting.get();
+        return s;
+    }
+}
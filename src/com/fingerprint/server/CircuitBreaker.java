@@ -0,0 +1,127 @@
+package com.fingerprint.server;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CircuitBreaker - Stops calling an endpoint that keeps failing
+ *
+ * Closed: calls go through, and {@code failureThreshold} failures in a row open the breaker.
+ * Open: calls are refused without trying, until {@code openMs} has passed.
+ * Half-open: one trial call is let through. Success closes the breaker; failure opens it again.
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openMs;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private boolean trialInFlight = false;
+
+    // Metrics
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+
+    public CircuitBreaker(int failureThreshold, long openMs) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMs = Math.max(0, openMs);
+    }
+
+    /**
+     * Check whether this breaker was built with the given settings
+     */
+    public boolean hasSettings(int failureThreshold, long openMs) {
+        return this.failureThreshold == Math.max(1, failureThreshold) && this.openMs == Math.max(0, openMs);
+    }
+
+    /**
+     * Whether a call may be made now. Refusals are counted; in half-open only one caller is let through.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMs) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Whether calls are currently refused, without using up the half-open trial
+     */
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && System.currentTimeMillis() - openedAt < openMs;
+    }
+
+    public synchronized void recordSuccess() {
+        successes.incrementAndGet();
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        state = State.CLOSED;
+    }
+
+    public synchronized void recordFailure() {
+        failures.incrementAndGet();
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                opened.incrementAndGet();
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Count a call refused before it reached {@link #allowRequest()}
+     */
+    public void recordRejected() {
+        rejected.incrementAndGet();
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    // ==================== Metrics ====================
+
+    public static class Stats {
+        public String state;
+        public int consecutiveFailures;
+        public long successes;
+        public long failures;
+        public long rejected;
+        public long opened;
+        public String retryAt;
+    }
+
+    public Stats getStats() {
+        Stats s = new Stats();
+        synchronized (this) {
+            s.state = state.name().toLowerCase();
+            s.consecutiveFailures = consecutiveFailures;
+            if (state == State.OPEN) {
+                s.retryAt = Instant.ofEpochMilli(openedAt + openMs).toString();
+            }
+        }
+        s.successes = successes.get();
+        s.failures = failures.get();
+        s.rejected = rejected.get();
+        s.opened = opened.get();
+        return s;
+    }
+}
@@ -0,0 +1,708 @@
+package com.fingerprint.server;
+
+import com.fingerprint.model.Registration;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * ClusterService - Partitions registrations across several servers and identifies against all of them
+ *
+ * Every node lists the same CLUSTER_NODES (base URLs, re-read when .env changes) and its own
+ * CLUSTER_SELF. Each registration lives on one node, chosen by a consistent-hash ring of the
+ * nodes that are currently up; nodes probe each other every CLUSTER_PROBE_SECONDS. When the
+ * ring changes (a node starts, stops or drains), every node moves the registrations it holds
+ * but no longer owns to their new owner: the owner stores it first, then it is deleted here.
+ *
+ * An identify at any node is sent to all other nodes in parallel, each with a CLUSTER_TIMEOUT_MS
+ * deadline, while the local partition is searched; the candidates are merged by score. Nodes
+ * that are down or too slow are listed and the result is marked partial.
+ */
+public final class ClusterService {
+    private static final Logger log = LoggerFactory.getLogger(ClusterService.class);
+
+    private final String self;
+    private final int timeoutMs;
+    private final long probeMs;
+    private final int virtualNodes;
+    private final StorageService storageService;
+    private final FingerprintService fingerprintService;
+    private final Gson gson = new GsonBuilder().create();
+
+    private final ExecutorService fanout;
+    private final ExecutorService rebalancer;
+    private final Thread probeThread;
+    private volatile boolean running = true;
+    private volatile boolean draining = false;
+    private final AtomicBoolean rebalancePending = new AtomicBoolean();
+    private volatile boolean rebalanceIncomplete = false;
+
+    private volatile ConsistentHashRing ring;
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+
+    // Metrics
+    private final AtomicLong identifies = new AtomicLong();
+    private final AtomicLong partialResults = new AtomicLong();
+    private final AtomicLong nodeTimeouts = new AtomicLong();
+    private final AtomicLong nodeErrors = new AtomicLong();
+    private final AtomicLong ringChanges = new AtomicLong();
+    private final AtomicLong rebalances = new AtomicLong();
+    private final AtomicLong movedOut = new AtomicLong();
+    private final AtomicLong movedIn = new AtomicLong();
+    private final AtomicLong moveFailures = new AtomicLong();
+    private final AtomicLong moveConflicts = new AtomicLong();
+    private volatile String lastMoveError;
+
+    // Registrations their owner refused (409, e.g. name taken there): id -> owner, not retried until the ring changes
+    private final Map<String, String> conflicts = new ConcurrentHashMap<>();
+
+    private enum MoveResult { MOVED, FAILED, CONFLICT }
+
+    private static class Peer {
+        volatile boolean up;
+        volatile boolean draining;
+        volatile int registrations = -1;
+        volatile long lastSeenAt;
+        volatile String lastError;
+        final AtomicLong identifies = new AtomicLong();
+        final AtomicLong identifyNanos = new AtomicLong();
+    }
+
+    public ClusterService(String self, StorageService storageService, FingerprintService fingerprintService) {
+        this.self = normalize(self);
+        this.timeoutMs = Math.max(100, EnvLoader.getInt("CLUSTER_TIMEOUT_MS", 2000));
+        this.probeMs = Math.max(1, EnvLoader.getInt("CLUSTER_PROBE_SECONDS", 2)) * 1000L;
+        this.virtualNodes = Math.max(1, EnvLoader.getInt("CLUSTER_VIRTUAL_NODES", 128));
+        this.storageService = storageService;
+        this.fingerprintService = fingerprintService;
+        this.ring = new ConsistentHashRing(new TreeSet<>(), virtualNodes);
+        reloadMembers();
+        EnvLoader.addReloadListener(this::reloadMembers);
+
+        this.fanout = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "ClusterFanoutThread");
+            t.setDaemon(true);
+            return t;
+        });
+        this.rebalancer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "ClusterRebalanceThread");
+            t.setDaemon(true);
+            return t;
+        });
+        this.probeThread = new Thread(this::probeLoop, "ClusterProbeThread");
+        this.probeThread.setDaemon(true);
+    }
+
+    private static String normalize(String url) {
+        String trimmed = url.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    public void start() {
+        probeThread.start();
+        log.info("Cluster node {} with peers {}", self, peers.keySet());
+    }
+
+    /**
+     * Add and remove peers to match CLUSTER_NODES. A removed node leaves the ring at the next probe.
+     */
+    public void reloadMembers() {
+        Set<String> nodes = new TreeSet<>();
+        for (String member : EnvLoader.get("CLUSTER_NODES", "").split(",")) {
+            if (!member.trim().isEmpty()) {
+                nodes.add(normalize(member));
+            }
+        }
+        if (!nodes.contains(self)) {
+            log.warn("CLUSTER_SELF {} is not in CLUSTER_NODES", self);
+        }
+        nodes.remove(self);
+        boolean changed = peers.keySet().retainAll(nodes);
+        for (String node : nodes) {
+            changed |= peers.putIfAbsent(node, new Peer()) == null;
+        }
+        if (changed) {
+            log.info("Cluster peers: {}", peers.keySet());
+        }
+    }
+
+    public void stop() {
+        running = false;
+        probeThread.interrupt();
+        fanout.shutdownNow();
+        rebalancer.shutdownNow();
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    /**
+     * Whether this node takes part in the ring (ready and not draining)
+     */
+    public boolean isActive() {
+        return fingerprintService.isInitialized() && !draining;
+    }
+
+    /**
+     * Current owner of a registration id (null while no node is up)
+     */
+    public String ownerOf(String registrationId) {
+        return ring.ownerOf(registrationId);
+    }
+
+    // ==================== Membership ====================
+
+    private void probeLoop() {
+        while (running) {
+            probeAll();
+            refreshRing();
+            if (rebalanceIncomplete) {
+                requestRebalance();
+            }
+            try {
+                Thread.sleep(probeMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void probeAll() {
+        Map<String, Future<?>> probes = new LinkedHashMap<>();
+        for (Map.Entry<String, Peer> entry : peers.entrySet()) {
+            probes.put(entry.getKey(), fanout.submit(() -> probe(entry.getKey(), entry.getValue())));
+        }
+        for (Future<?> probe : probes.values()) {
+            try {
+                probe.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // probe() records its own failures
+            }
+        }
+    }
+
+    private void probe(String node, Peer peer) {
+        try {
+            JsonObject info = JsonParser.parseString(request("GET", node + "/api/cluster/node", null,
+                    Math.min(timeoutMs, 2000))).getAsJsonObject();
+            peer.draining = info.get("draining").getAsBoolean();
+            peer.up = info.get("ready").getAsBoolean() && !peer.draining;
+            peer.registrations = info.get("registrations").getAsInt();
+            peer.lastSeenAt = System.currentTimeMillis();
+            peer.lastError = null;
+        } catch (IOException | RuntimeException e) {
+            if (peer.up) {
+                log.warn("Cluster node {} is not answering: {}", node, e.getMessage());
+            }
+            peer.up = false;
+            peer.lastError = e.getMessage();
+        }
+    }
+
+    /**
+     * Rebuild the ring from the nodes that are up; rebalance if it changed
+     */
+    private void refreshRing() {
+        Set<String> up = new TreeSet<>();
+        if (isActive()) {
+            up.add(self);
+        }
+        peers.forEach((node, peer) -> {
+            if (peer.up) {
+                up.add(node);
+            }
+        });
+        if (up.equals(ring.getNodes())) {
+            return;
+        }
+        ring = new ConsistentHashRing(up, virtualNodes);
+        ringChanges.incrementAndGet();
+        // New owners get a fresh try
+        conflicts.clear();
+        log.info("Cluster ring changed: {}", up);
+        requestRebalance();
+    }
+
+    /**
+     * Stop owning registrations: leave the ring and hand everything held here to the other nodes
+     */
+    public void drain() {
+        if (!draining) {
+            draining = true;
+            log.info("Draining: moving all registrations to the other nodes");
+            refreshRing();
+            requestRebalance();
+        }
+    }
+
+    // ==================== Rebalancing ====================
+
+    public void requestRebalance() {
+        if (rebalancePending.compareAndSet(false, true)) {
+            rebalancer.execute(() -> {
+                rebalancePending.set(false);
+                rebalance();
+            });
+        }
+    }
+
+    /**
+     * Move every registration held here to its owner on the current ring
+     */
+    private void rebalance() {
+        // Nothing is moved before the matcher is loaded (a starting node is simply not in the ring yet)
+        ConsistentHashRing current = ring;
+        if (!fingerprintService.isInitialized() || current.isEmpty()) {
+            return;
+        }
+        rebalances.incrementAndGet();
+        rebalanceIncomplete = false;
+        conflicts.keySet().removeIf(id -> storageService.getRegistrationById(id).isEmpty());
+        long start = System.currentTimeMillis();
+        int moved = 0;
+        int failed = 0;
+        int conflicted = 0;
+        for (Registration registration : new ArrayList<>(storageService.getAllRegistrations())) {
+            if (ring != current) {
+                // Membership changed again; the next pass uses the new ring
+                requestRebalance();
+                break;
+            }
+            String owner = current.ownerOf(registration.getId());
+            if (owner.equals(self) || owner.equals(conflicts.get(registration.getId()))) {
+                continue;
+            }
+            switch (moveTo(owner, registration)) {
+                case MOVED -> moved++;
+                case FAILED -> failed++;
+                case CONFLICT -> conflicted++;
+            }
+        }
+        if (failed > 0) {
+            // Retried after the next probe
+            rebalanceIncomplete = true;
+        }
+        if (moved > 0 || failed > 0 || conflicted > 0) {
+            log.info("Rebalanced in {}ms: {} registrations moved, {} failed, {} refused by their owner",
+                    System.currentTimeMillis() - start, moved, failed, conflicted);
+        }
+    }
+
+    /**
+     * Move a registration just added here to its owner, if that is another node
+     */
+    public void handOff(String registrationId) {
+        rebalancer.execute(() -> {
+            String owner = ring.ownerOf(registrationId);
+            if (owner == null || owner.equals(self)) {
+                return;
+            }
+            storageService.getRegistrationById(registrationId).ifPresent(registration -> {
+                if (moveTo(owner, registration) == MoveResult.FAILED) {
+                    rebalanceIncomplete = true;
+                }
+            });
+        });
+    }
+
+    private MoveResult moveTo(String owner, Registration registration) {
+        String templateBase64 = storageService.getTemplateBase64(registration.getId());
+        if (templateBase64 == null) {
+            return MoveResult.FAILED;
+        }
+        JsonObject body = new JsonObject();
+        body.add("registration", gson.toJsonTree(registration));
+        body.addProperty("templateBase64", templateBase64);
+        try {
+            request("POST", owner + "/api/cluster/registrations", gson.toJson(body), timeoutMs * 5);
+        } catch (IOException e) {
+            lastMoveError = registration.getId() + " to " + owner + ": " + e.getMessage();
+            if (e instanceof StatusException && ((StatusException) e).status == 409) {
+                // Retrying cannot help; the registration stays here and is still found by identify
+                conflicts.put(registration.getId(), owner);
+                moveConflicts.incrementAndGet();
+                log.warn("{} refused {} ({}), keeping it here: {}", owner, registration.getId(),
+                        registration.getName(), e.getMessage());
+                return MoveResult.CONFLICT;
+            }
+            moveFailures.incrementAndGet();
+            log.warn("Could not move {} to {}: {}", registration.getId(), owner, e.getMessage());
+            return MoveResult.FAILED;
+        }
+        // The owner has it now; a failed delete here only leaves a copy for the next pass
+        fingerprintService.deleteRegistration(registration.getId());
+        movedOut.incrementAndGet();
+        return MoveResult.MOVED;
+    }
+
+    /**
+     * Store a registration moved here by another node
+     * @return false if it could not be stored (for example its name is taken on this node)
+     */
+    public boolean receive(Registration registration, String templateBase64) {
+        if (!fingerprintService.applyReplicatedAdd(registration, templateBase64)) {
+            return false;
+        }
+        movedIn.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Delete a registration that is not on this node from whichever node holds it
+     * @return the node that deleted it, or null if no node that is up has it
+     */
+    public String deleteElsewhere(String registrationId) {
+        String url = "/api/cluster/registrations/" + URLEncoder.encode(registrationId, StandardCharsets.UTF_8);
+        Map<String, Future<Boolean>> calls = new LinkedHashMap<>();
+        peers.forEach((node, peer) -> {
+            if (peer.up) {
+                calls.put(node, fanout.submit(() -> {
+                    try {
+                        request("DELETE", node + url, null, timeoutMs);
+                        return true;
+                    } catch (IOException e) {
+                        return false;
+                    }
+                }));
+            }
+        });
+        String deletedBy = null;
+        for (Map.Entry<String, Future<Boolean>> call : calls.entrySet()) {
+            try {
+                if (call.getValue().get()) {
+                    deletedBy = call.getKey();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                nodeErrors.incrementAndGet();
+            }
+        }
+        return deletedBy;
+    }
+
+    /**
+     * A registration with this name (case-insensitive) on another node that is up, with the
+     * node that holds it, or null. Nodes that are down cannot be checked.
+     */
+    public JsonObject findNameElsewhere(String name) {
+        String url = "/api/cluster/registrations?name=" + URLEncoder.encode(name, StandardCharsets.UTF_8);
+        Map<String, Future<JsonObject>> calls = new LinkedHashMap<>();
+        peers.forEach((node, peer) -> {
+            if (peer.up) {
+                calls.put(node, fanout.submit(() -> {
+                    try {
+                        return JsonParser.parseString(request("GET", node + url, null, timeoutMs)).getAsJsonObject();
+                    } catch (StatusException e) {
+                        if (e.status == 404) {
+                            return null;
+                        }
+                        throw e;
+                    }
+                }));
+            }
+        });
+        JsonObject found = null;
+        for (Map.Entry<String, Future<JsonObject>> call : calls.entrySet()) {
+            try {
+                JsonObject existing = call.getValue().get();
+                if (existing != null && found == null) {
+                    existing.addProperty("node", call.getKey());
+                    found = existing;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                nodeErrors.incrementAndGet();
+            }
+        }
+        return found;
+    }
+
+    // ==================== Scatter-Gather Identify ====================
+
+    public static class ScatterResult {
+        public List<JsonObject> candidates = new ArrayList<>();
+        public int nodes;
+        public int answered;
+        // Nodes that are down, timed out or failed; their partitions were not searched
+        public List<String> missing = new ArrayList<>();
+        public boolean partial;
+        public long elapsedMs;
+    }
+
+    /**
+     * Identify against every partition: {@code request} (an /api/identify body) is sent to the
+     * other nodes in parallel while {@code local} searches this node's partition.
+     * @param local Returns this node's candidatesToJson result
+     */
+    public ScatterResult identify(JsonObject request, int topK, Supplier<JsonObject> local) {
+        long start = System.nanoTime();
+        identifies.incrementAndGet();
+        ScatterResult result = new ScatterResult();
+        String body = gson.toJson(request);
+
+        Map<String, Future<JsonObject>> calls = new LinkedHashMap<>();
+        for (Map.Entry<String, Peer> entry : peers.entrySet()) {
+            String node = entry.getKey();
+            Peer peer = entry.getValue();
+            if (!peer.up) {
+                // A node that drained before it went down holds nothing
+                if (!(peer.draining && peer.registrations == 0)) {
+                    result.missing.add(node);
+                }
+                continue;
+            }
+            calls.put(node, fanout.submit(() -> {
+                long callStart = System.nanoTime();
+                JsonObject answer = JsonParser.parseString(request("POST", node + "/api/cluster/identify",
+                        body, timeoutMs)).getAsJsonObject();
+                peer.identifies.incrementAndGet();
+                peer.identifyNanos.addAndGet(System.nanoTime() - callStart);
+                return answer;
+            }));
+        }
+        result.nodes = calls.size() + (local != null ? 1 : 0);
+
+        Map<String, JsonObject> merged = new LinkedHashMap<>();
+        if (local != null) {
+            mergeCandidates(merged, local.get(), self);
+            result.answered++;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (Map.Entry<String, Future<JsonObject>> call : calls.entrySet()) {
+            try {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                mergeCandidates(merged, call.getValue().get(remaining, TimeUnit.NANOSECONDS), call.getKey());
+                result.answered++;
+            } catch (TimeoutException e) {
+                call.getValue().cancel(true);
+                nodeTimeouts.incrementAndGet();
+                result.missing.add(call.getKey());
+            } catch (ExecutionException e) {
+                nodeErrors.incrementAndGet();
+                Peer peer = peers.get(call.getKey());
+                if (peer != null) {
+                    peer.lastError = e.getCause().getMessage();
+                }
+                result.missing.add(call.getKey());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.missing.add(call.getKey());
+            }
+        }
+
+        List<JsonObject> ranked = new ArrayList<>(merged.values());
+        ranked.sort((a, b) -> Integer.compare(b.get("score").getAsInt(), a.get("score").getAsInt()));
+        result.candidates = ranked.subList(0, Math.min(topK, ranked.size()));
+        result.partial = !result.missing.isEmpty();
+        if (result.partial) {
+            partialResults.incrementAndGet();
+        }
+        result.elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Add a node's candidates, keeping the best score per registration (one being moved may be on two nodes)
+     */
+    private static void mergeCandidates(Map<String, JsonObject> merged, JsonObject answer, String node) {
+        for (JsonElement element : answer.getAsJsonArray("candidates")) {
+            JsonObject candidate = element.getAsJsonObject();
+            candidate.addProperty("node", node);
+            String id = candidate.get("id").getAsString();
+            JsonObject existing = merged.get(id);
+            if (existing == null || existing.get("score").getAsInt() < candidate.get("score").getAsInt()) {
+                merged.put(id, candidate);
+            }
+        }
+    }
+
+    /**
+     * Best match on the other nodes for a reader scan that found nothing locally
+     */
+    public FingerprintService.IdentifyResult identifyRemote(byte[] template, String scopeName) {
+        JsonObject request = new JsonObject();
+        request.addProperty("template", Base64.getEncoder().encodeToString(template));
+        if (scopeName != null) {
+            request.addProperty("scope", scopeName);
+        }
+        ScatterResult result = identify(request, 1, null);
+        if (result.candidates.isEmpty()) {
+            return FingerprintService.IdentifyResult.notFound();
+        }
+        JsonObject best = result.candidates.get(0);
+        return FingerprintService.IdentifyResult.found(gson.fromJson(best, Registration.class),
+                best.get("score").getAsInt());
+    }
+
+    // ==================== HTTP ====================
+
+    /**
+     * A node answered with a non-2xx status
+     */
+    private static class StatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        StatusException(String message, int status) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private String request(String method, String url, String body, int timeout) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) URI.create(url).toURL().openConnection();
+        try {
+            conn.setRequestMethod(method);
+            conn.setRequestProperty("Content-Type", "application/json");
+            String key = EnvLoader.get("CLUSTER_KEY", EnvLoader.get("INTERNAL_KEY", ""));
+            if (key != null && !key.isEmpty()) {
+                conn.setRequestProperty("Authorization", "Bearer " + key);
+            }
+            conn.setConnectTimeout(Math.min(timeout, 2000));
+            conn.setReadTimeout(timeout);
+            if (body != null) {
+                conn.setDoOutput(true);
+                try (OutputStream out = conn.getOutputStream()) {
+                    out.write(body.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int status = conn.getResponseCode();
+            if (status < 200 || status >= 300) {
+                throw new StatusException(method + " " + url + " returned " + status, status);
+            }
+            try (InputStream in = conn.getInputStream()) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    // ==================== Metrics ====================
+
+    public static class NodeStats {
+        public boolean up;
+        public boolean draining;
+        public int registrations;
+        public double ringShare;
+        public String lastSeenAt;
+        public String lastError;
+        public long identifies;
+        public double avgIdentifyMs;
+    }
+
+    public static class Stats {
+        public String self;
+        public boolean active;
+        public boolean draining;
+        public Map<String, NodeStats> nodes = new TreeMap<>();
+        public long identifies;
+        public long partialResults;
+        public long nodeTimeouts;
+        public long nodeErrors;
+        public long ringChanges;
+        public long rebalances;
+        public long movedOut;
+        public long movedIn;
+        public long moveFailures;
+        public long moveConflicts;
+        public String lastMoveError;
+        // Registrations their owner refused (name taken there), by id: the owner node
+        public Map<String, String> conflicts = new TreeMap<>();
+    }
+
+    public Stats getStats() {
+        Stats s = new Stats();
+        s.self = self;
+        s.active = isActive();
+        s.draining = draining;
+        Map<String, Double> shares = ring.getShares();
+
+        NodeStats own = new NodeStats();
+        own.up = s.active;
+        own.draining = draining;
+        own.registrations = storageService.getRegistrationCount();
+        own.ringShare = shares.getOrDefault(self, 0.0);
+        s.nodes.put(self, own);
+        peers.forEach((node, peer) -> {
+            NodeStats n = new NodeStats();
+            n.up = peer.up;
+            n.draining = peer.draining;
+            n.registrations = peer.registrations;
+            n.ringShare = shares.getOrDefault(node, 0.0);
+            long seen = peer.lastSeenAt;
+            n.lastSeenAt = seen > 0 ? Instant.ofEpochMilli(seen).toString() : null;
+            n.lastError = peer.lastError;
+            n.identifies = peer.identifies.get();
+            n.avgIdentifyMs = n.identifies > 0 ? peer.identifyNanos.get() / 1e6 / n.identifies : 0.0;
+            s.nodes.put(node, n);
+        });
+
+        s.identifies = identifies.get();
+        s.partialResults = partialResults.get();
+        s.nodeTimeouts = nodeTimeouts.get();
+        s.nodeErrors = nodeErrors.get();
+        s.ringChanges = ringChanges.get();
+        s.rebalances = rebalances.get();
+        s.movedOut = movedOut.get();
+        s.movedIn = movedIn.get();
+        s.moveFailures = moveFailures.get();
+        s.moveConflicts = moveConflicts.get();
+        s.lastMoveError = lastMoveError;
+        s.conflicts.putAll(conflicts);
+        return s;
+    }
+
+    /**
+     * What other nodes see when they probe this one
+     */
+    public JsonObject getNodeInfo() {
+        JsonObject info = new JsonObject();
+        info.addProperty("node", self);
+        info.addProperty("ready", fingerprintService.isInitialized());
+        info.addProperty("draining", draining);
+        info.addProperty("registrations", storageService.getRegistrationCount());
+        return info;
+    }
+}
@@ -0,0 +1,115 @@
+package com.fingerprint.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConfigWatcher - Watches configuration files and runs a reload handler when they change
+ *
+ * Editors often produce several events per save (truncate, write, rename), so events are
+ * collected for a short settle period and each changed file is reloaded once.
+ */
+public class ConfigWatcher {
+    private static final Logger log = LoggerFactory.getLogger(ConfigWatcher.class);
+
+    private static final long SETTLE_MS = 300;
+
+    private final Path directory;
+    private final Map<String, Runnable> handlers = new LinkedHashMap<>();
+    private WatchService watchService;
+    private Thread watcherThread;
+
+    public ConfigWatcher(Path directory) {
+        this.directory = directory.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Register a handler for a file name inside the watched directory
+     */
+    public ConfigWatcher watch(String fileName, Runnable handler) {
+        handlers.put(fileName, handler);
+        return this;
+    }
+
+    public void start() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            log.warn("Cannot watch {}: {}", directory, e.getMessage());
+            return;
+        }
+
+        watcherThread = new Thread(this::watchLoop, "ConfigWatcherThread");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        log.info("Watching {} in {}", handlers.keySet(), directory);
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Set<String> changed = new LinkedHashSet<>();
+                collect(key, changed);
+
+                // Let the writer finish, then pick up any follow-up events
+                Thread.sleep(SETTLE_MS);
+                WatchKey more;
+                while ((more = watchService.poll(0, TimeUnit.MILLISECONDS)) != null) {
+                    collect(more, changed);
+                }
+
+                for (String fileName : changed) {
+                    log.info("{} changed, reloading", fileName);
+                    try {
+                        handlers.get(fileName).run();
+                    } catch (Exception e) {
+                        log.error("Reload of {} failed: {}", fileName, e.getMessage());
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    private void collect(WatchKey key, Set<String> changed) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed.addAll(handlers.keySet());
+                continue;
+            }
+            String fileName = ((Path) event.context()).getFileName().toString();
+            if (handlers.containsKey(fileName)) {
+                changed.add(fileName);
+            }
+        }
+        key.reset();
+    }
+
+    public void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
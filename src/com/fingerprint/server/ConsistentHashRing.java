@@ -0,0 +1,93 @@
+package com.fingerprint.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * ConsistentHashRing - Maps registration ids to cluster nodes
+ *
+ * Each node is placed on the ring at {@code virtualNodes} points (hashes of "node#i"); a key
+ * belongs to the first point at or after its own hash. When a node joins or leaves, only the
+ * keys next to its points change owner, roughly 1/N of them. Immutable.
+ */
+public class ConsistentHashRing {
+    private final SortedSet<String> nodes;
+    private final TreeMap<Long, String> points = new TreeMap<>();
+
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        this.nodes = Collections.unmodifiableSortedSet(new TreeSet<>(nodes));
+        for (String node : this.nodes) {
+            for (int i = 0; i < Math.max(1, virtualNodes); i++) {
+                points.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * Node that owns a key, or null if the ring is empty
+     */
+    public String ownerOf(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> entry = points.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : points.firstEntry().getValue();
+    }
+
+    public SortedSet<String> getNodes() {
+        return nodes;
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    /**
+     * Share of the hash space owned by each node, for balance reporting
+     */
+    public Map<String, Double> getShares() {
+        Map<String, Double> shares = new TreeMap<>();
+        if (points.isEmpty()) {
+            return shares;
+        }
+        List<Map.Entry<Long, String>> entries = new ArrayList<>(points.entrySet());
+        double space = Math.pow(2, 64);
+        for (int i = 0; i < entries.size(); i++) {
+            // A point owns the arc back to the previous point; the first wraps around to the last
+            long from = entries.get(i == 0 ? entries.size() - 1 : i - 1).getKey();
+            long to = entries.get(i).getKey();
+            double width = entries.size() == 1 ? space : unsigned(to - from);
+            shares.merge(entries.get(i).getValue(), width / space, Double::sum);
+        }
+        return shares;
+    }
+
+    private static double unsigned(long value) {
+        return value >= 0 ? value : value + Math.pow(2, 64);
+    }
+
+    /**
+     * First 8 bytes of MD5, for an even spread of short, similar strings
+     */
+    static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (digest[i] & 0xff);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
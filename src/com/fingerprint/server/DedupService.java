@@ -0,0 +1,466 @@
+package com.fingerprint.server;
+
+import com.fingerprint.model.Registration;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DedupService - Offline job that finds biometric duplicates across all registrations
+ *
+ * Every stored template is matched 1:1 against every other one (upper triangle only), in
+ * blocks of rows spread over a fork-join pool of minimum-priority daemon threads, so the
+ * reader loop and API requests keep the CPU when they need it. Pairs scoring at or above
+ * the threshold are grouped into clusters (union-find) and written to a JSON report.
+ *
+ * After each finished row block the job writes a checkpoint; a job started with resume
+ * skips the blocks already done, as long as the registrations, block size and threshold
+ * have not changed.
+ */
+public class DedupService {
+    private static final Logger log = LoggerFactory.getLogger(DedupService.class);
+
+    private static final String DEDUP_DIR = "dedup";
+    private static final String CHECKPOINT_FILE = "checkpoint.json";
+
+    public enum State { IDLE, LOADING, RUNNING, CANCELLED, COMPLETED, FAILED }
+
+    private final StorageService storageService;
+    private final FingerprintService fingerprintService;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    private volatile Job currentJob;
+
+    public DedupService(StorageService storageService, FingerprintService fingerprintService) {
+        this.storageService = storageService;
+        this.fingerprintService = fingerprintService;
+    }
+
+    // ==================== Persisted Forms ====================
+
+    static class Pair {
+        String a;
+        String b;
+        int score;
+
+        Pair(String a, String b, int score) {
+            this.a = a;
+            this.b = b;
+            this.score = score;
+        }
+    }
+
+    static class Checkpoint {
+        String registrationsHash;
+        int blockSize;
+        int threshold;
+        Set<Integer> completedBlocks = new HashSet<>();
+        List<Pair> pairs = new ArrayList<>();
+    }
+
+    static class ClusterMember {
+        String id;
+        String name;
+        String role;
+        String createdAt;
+    }
+
+    static class Cluster {
+        int maxScore;
+        List<ClusterMember> members = new ArrayList<>();
+        List<Pair> pairs = new ArrayList<>();
+    }
+
+    static class Report {
+        String startedAt;
+        String finishedAt;
+        int registrations;
+        int threshold;
+        long comparisons;
+        int suspectedDuplicates;
+        List<Cluster> clusters = new ArrayList<>();
+    }
+
+    // ==================== Job ====================
+
+    private class Job implements Runnable {
+        final int threshold;
+        final int blockSize;
+        final boolean resume;
+        final String startedAt = Instant.now().toString();
+        final long startNanos = System.nanoTime();
+
+        volatile State state = State.LOADING;
+        volatile boolean cancelRequested;
+        volatile String message;
+        volatile String reportFile;
+        volatile int totalBlocks;
+        volatile long totalComparisons;
+        final AtomicLong comparisons = new AtomicLong();
+        final Set<Integer> completedBlocks = Collections.synchronizedSet(new HashSet<>());
+        final List<Pair> pairs = Collections.synchronizedList(new ArrayList<>());
+
+        String[] ids;
+        byte[][] templates;
+        String registrationsHash;
+        ForkJoinPool pool;
+
+        Job(int threshold, int blockSize, boolean resume) {
+            this.threshold = threshold;
+            this.blockSize = blockSize;
+            this.resume = resume;
+        }
+
+        @Override
+        public void run() {
+            try {
+                load();
+                if (cancelRequested) {
+                    finish(State.CANCELLED, "Cancelled while loading templates");
+                    return;
+                }
+                restoreCheckpoint();
+                state = State.RUNNING;
+                sweep();
+                if (cancelRequested) {
+                    finish(State.CANCELLED, "Cancelled; checkpoint kept for resume");
+                    return;
+                }
+                writeReport();
+                Files.deleteIfExists(Paths.get(dedupPath(CHECKPOINT_FILE)));
+                finish(State.COMPLETED, pairs.size() + " suspected duplicate pair(s)");
+            } catch (Exception e) {
+                log.error("Job failed: {}", e.getMessage());
+                finish(State.FAILED, e.getMessage());
+            } finally {
+                if (pool != null) {
+                    pool.shutdownNow();
+                }
+            }
+        }
+
+        private void finish(State finalState, String text) {
+            message = text;
+            state = finalState;
+            log.info("Job {}: {}", finalState.name().toLowerCase(), text);
+        }
+
+        /**
+         * Decode every stored template once, ordered by id so block numbers are stable across runs
+         */
+        private void load() {
+            List<Registration> registrations = new ArrayList<>(storageService.getAllRegistrations());
+            registrations.sort(Comparator.comparing(Registration::getId));
+
+            List<String> loadedIds = new ArrayList<>(registrations.size());
+            List<byte[]> loaded = new ArrayList<>(registrations.size());
+            for (Registration reg : registrations) {
+                if (cancelRequested) return;
+                byte[] template = FingerprintService.decodeTemplate(storageService.getTemplateBase64(reg.getId()));
+                if (template == null) {
+                    log.warn("Skipping {}: template missing or invalid", reg.getId());
+                    continue;
+                }
+                loadedIds.add(reg.getId());
+                loaded.add(template);
+            }
+            ids = loadedIds.toArray(new String[0]);
+            templates = loaded.toArray(new byte[0][]);
+            registrationsHash = Integer.toHexString(String.join(",", loadedIds).hashCode()) + "-" + ids.length;
+
+            long n = ids.length;
+            totalComparisons = n * (n - 1) / 2;
+            totalBlocks = (ids.length + blockSize - 1) / blockSize;
+            log.info("Loaded {} templates, {} comparisons in {} blocks", ids.length, totalComparisons, totalBlocks);
+        }
+
+        private void restoreCheckpoint() {
+            if (!resume) return;
+            File file = new File(dedupPath(CHECKPOINT_FILE));
+            if (!file.exists()) return;
+            try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                Checkpoint checkpoint = gson.fromJson(reader, Checkpoint.class);
+                if (checkpoint == null || !registrationsHash.equals(checkpoint.registrationsHash)
+                        || checkpoint.blockSize != blockSize || checkpoint.threshold != threshold) {
+                    log.info("Checkpoint does not match current data, starting over");
+                    return;
+                }
+                completedBlocks.addAll(checkpoint.completedBlocks);
+                pairs.addAll(checkpoint.pairs);
+                for (int block : checkpoint.completedBlocks) {
+                    comparisons.addAndGet(comparisonsInBlock(block));
+                }
+                log.info("Resuming with {}/{} blocks done", completedBlocks.size(), totalBlocks);
+            } catch (Exception e) {
+                log.warn("Ignoring unreadable checkpoint: {}", e.getMessage());
+            }
+        }
+
+        private void sweep() throws Exception {
+            int parallelism = Math.max(1, EnvLoader.getInt("DEDUP_PARALLELISM",
+                    Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+            pool = new ForkJoinPool(parallelism, p -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                t.setName("DedupWorker-" + t.getPoolIndex());
+                t.setPriority(Thread.MIN_PRIORITY);
+                t.setDaemon(true);
+                return t;
+            }, null, false);
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (int block = 0; block < totalBlocks; block++) {
+                if (completedBlocks.contains(block)) continue;
+                final int b = block;
+                futures.add(pool.submit(() -> sweepBlock(b)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        /**
+         * Compare rows [block * blockSize, ...) against every later template
+         */
+        private void sweepBlock(int block) {
+            int from = block * blockSize;
+            int to = Math.min(ids.length, from + blockSize);
+            List<Pair> found = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                if (cancelRequested) return;
+                byte[] a = templates[i];
+                for (int j = i + 1; j < ids.length; j++) {
+                    int score = fingerprintService.matchTemplates(a, templates[j]);
+                    if (score >= threshold) {
+                        found.add(new Pair(ids[i], ids[j], score));
+                    }
+                }
+                comparisons.addAndGet(ids.length - 1 - i);
+            }
+            pairs.addAll(found);
+            completedBlocks.add(block);
+            writeCheckpoint();
+        }
+
+        private long comparisonsInBlock(int block) {
+            long total = 0;
+            int from = block * blockSize;
+            int to = Math.min(ids.length, from + blockSize);
+            for (int i = from; i < to; i++) {
+                total += ids.length - 1 - i;
+            }
+            return total;
+        }
+
+        private void writeCheckpoint() {
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.registrationsHash = registrationsHash;
+            checkpoint.blockSize = blockSize;
+            checkpoint.threshold = threshold;
+            synchronized (completedBlocks) {
+                checkpoint.completedBlocks.addAll(completedBlocks);
+            }
+            synchronized (pairs) {
+                checkpoint.pairs.addAll(pairs);
+            }
+            synchronized (this) {
+                try {
+                    writeAtomically(dedupPath(CHECKPOINT_FILE), gson.toJson(checkpoint));
+                } catch (IOException e) {
+                    log.error("Error writing checkpoint: {}", e.getMessage());
+                }
+            }
+        }
+
+        private void writeReport() throws IOException {
+            Report report = new Report();
+            report.startedAt = startedAt;
+            report.finishedAt = Instant.now().toString();
+            report.registrations = ids.length;
+            report.threshold = threshold;
+            report.comparisons = comparisons.get();
+            report.suspectedDuplicates = pairs.size();
+            report.clusters = buildClusters();
+
+            String fileName = "report-" + report.finishedAt.replace(":", "-") + ".json";
+            writeAtomically(dedupPath(fileName), gson.toJson(report));
+            reportFile = dedupPath(fileName);
+            log.info("Report written: {} ({} cluster(s))", reportFile, report.clusters.size());
+        }
+
+        /**
+         * Group matching pairs into clusters with union-find
+         */
+        private List<Cluster> buildClusters() {
+            Map<String, String> parent = new HashMap<>();
+            List<Pair> all;
+            synchronized (pairs) {
+                all = new ArrayList<>(pairs);
+            }
+            for (Pair pair : all) {
+                union(parent, pair.a, pair.b);
+            }
+
+            Map<String, Cluster> byRoot = new LinkedHashMap<>();
+            for (Pair pair : all) {
+                Cluster cluster = byRoot.computeIfAbsent(find(parent, pair.a), r -> new Cluster());
+                cluster.pairs.add(pair);
+                cluster.maxScore = Math.max(cluster.maxScore, pair.score);
+            }
+            for (String id : parent.keySet()) {
+                Cluster cluster = byRoot.get(find(parent, id));
+                ClusterMember member = new ClusterMember();
+                member.id = id;
+                storageService.getRegistrationById(id).ifPresent(reg -> {
+                    member.name = reg.getName();
+                    member.role = reg.getRole();
+                    member.createdAt = reg.getCreatedAt();
+                });
+                cluster.members.add(member);
+            }
+
+            List<Cluster> clusters = new ArrayList<>(byRoot.values());
+            clusters.sort((x, y) -> Integer.compare(y.maxScore, x.maxScore));
+            return clusters;
+        }
+    }
+
+    private static String find(Map<String, String> parent, String id) {
+        parent.putIfAbsent(id, id);
+        String root = id;
+        while (!parent.get(root).equals(root)) {
+            root = parent.get(root);
+        }
+        // Path compression
+        while (!parent.get(id).equals(root)) {
+            String next = parent.get(id);
+            parent.put(id, root);
+            id = next;
+        }
+        return root;
+    }
+
+    private static void union(Map<String, String> parent, String a, String b) {
+        String rootA = find(parent, a);
+        String rootB = find(parent, b);
+        if (!rootA.equals(rootB)) {
+            parent.put(rootB, rootA);
+        }
+    }
+
+    private String dedupPath(String fileName) {
+        return storageService.getDataFile(DEDUP_DIR + "/" + fileName);
+    }
+
+    private static void writeAtomically(String path, String content) throws IOException {
+        Path file = Paths.get(path);
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ==================== Control ====================
+
+    /**
+     * Start a dedup job in the background
+     * @return false if a job is already running
+     */
+    public synchronized boolean start(int threshold, boolean resume) {
+        Job job = currentJob;
+        if (job != null && (job.state == State.LOADING || job.state == State.RUNNING)) {
+            return false;
+        }
+        int blockSize = Math.max(1, EnvLoader.getInt("DEDUP_BLOCK_SIZE", 256));
+        currentJob = new Job(threshold, blockSize, resume);
+        Thread thread = new Thread(currentJob, "DedupJobThread");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        log.info("Job started (threshold={}, blockSize={}, resume={})", threshold, blockSize, resume);
+        return true;
+    }
+
+    /**
+     * Ask the running job to stop after its current rows
+     * @return false if no job is running
+     */
+    public boolean cancel() {
+        Job job = currentJob;
+        if (job == null || (job.state != State.LOADING && job.state != State.RUNNING)) {
+            return false;
+        }
+        job.cancelRequested = true;
+        return true;
+    }
+
+    public static class Status {
+        public String state;
+        public String message;
+        public String startedAt;
+        public int threshold;
+        public int registrations;
+        public int blocksDone;
+        public int blocksTotal;
+        public long comparisons;
+        public long comparisonsTotal;
+        public double progress;
+        public int pairsFound;
+        public long elapsedSeconds;
+        public long etaSeconds;
+        public String reportFile;
+    }
+
+    public Status getStatus() {
+        Status s = new Status();
+        Job job = currentJob;
+        if (job == null) {
+            s.state = State.IDLE.name().toLowerCase();
+            return s;
+        }
+        s.state = job.state.name().toLowerCase();
+        s.message = job.message;
+        s.startedAt = job.startedAt;
+        s.threshold = job.threshold;
+        s.registrations = job.ids != null ? job.ids.length : 0;
+        s.blocksDone = job.completedBlocks.size();
+        s.blocksTotal = job.totalBlocks;
+        s.comparisons = job.comparisons.get();
+        s.comparisonsTotal = job.totalComparisons;
+        s.progress = s.comparisonsTotal > 0 ? (double) s.comparisons / s.comparisonsTotal
+                : (job.state == State.COMPLETED ? 1.0 : 0.0);
+        s.pairsFound = job.pairs.size();
+        s.elapsedSeconds = (System.nanoTime() - job.startNanos) / 1_000_000_000L;
+        if (job.state == State.RUNNING && s.progress > 0) {
+            s.etaSeconds = (long) (s.elapsedSeconds * (1 - s.progress) / s.progress);
+        }
+        s.reportFile = job.reportFile;
+        return s;
+    }
+}
@@ -0,0 +1,280 @@
+package com.fingerprint.server;
+
+import com.zkteco.biometric.FingerprintSensorErrorCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * DeviceSupervisor - Watchdog for the fingerprint reader
+ *
+ * Every AcquireFingerprint result is passed to {@link #record(int)}, which classifies it. "No
+ * finger" and bad images show that the reader is answering; device faults and unexpected codes
+ * do not. After DEVICE_MAX_FAILURES of those in a row the reader is considered lost: captures
+ * stop, and a watchdog thread closes and reopens it with exponential backoff
+ * (DEVICE_RECONNECT_MIN_MS up to DEVICE_RECONNECT_MAX_MS) until it answers again.
+ */
+public class DeviceSupervisor {
+    private static final Logger log = LoggerFactory.getLogger(DeviceSupervisor.class);
+
+    public enum State { CONNECTED, DEGRADED, RECONNECTING }
+
+    public enum ErrorClass { OK, NO_FINGER, BAD_IMAGE, TRANSIENT, DEVICE_FAULT }
+
+    private static final int WINDOW_SECONDS = 60;
+
+    private final BooleanSupplier reopen;
+    private final Runnable onReconnected;
+    private final int maxFailures;
+    private final long minBackoffMs;
+    private final long maxBackoffMs;
+    private final Thread watchdogThread;
+    private volatile boolean running = true;
+
+    // Guarded by this
+    private State state = State.CONNECTED;
+    private int consecutiveFailures = 0;
+    private long disconnectedAt = 0;
+
+    // Per-second error and poll counts for the last minute, guarded by this
+    private final long[] windowSecond = new long[WINDOW_SECONDS];
+    private final long[] windowPolls = new long[WINDOW_SECONDS];
+    private final long[] windowErrors = new long[WINDOW_SECONDS];
+
+    // Metrics
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong captures = new AtomicLong();
+    private final AtomicLong noFinger = new AtomicLong();
+    private final AtomicLong badImages = new AtomicLong();
+    private final AtomicLong transientErrors = new AtomicLong();
+    private final AtomicLong deviceFaults = new AtomicLong();
+    private final AtomicLong reconnectAttempts = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong downtimeMs = new AtomicLong();
+    private volatile int lastErrorCode = 0;
+    private volatile long lastErrorAt = 0;
+
+    /**
+     * @param reopen Closes and reopens the reader, returning true once it is usable again
+     * @param onReconnected Runs on the watchdog thread after a successful reopen
+     */
+    public DeviceSupervisor(BooleanSupplier reopen, Runnable onReconnected) {
+        this.reopen = reopen;
+        this.onReconnected = onReconnected;
+        this.maxFailures = Math.max(1, EnvLoader.getInt("DEVICE_MAX_FAILURES", 5));
+        this.minBackoffMs = Math.max(10, EnvLoader.getInt("DEVICE_RECONNECT_MIN_MS", 500));
+        this.maxBackoffMs = Math.max(minBackoffMs, EnvLoader.getInt("DEVICE_RECONNECT_MAX_MS", 30000));
+        this.watchdogThread = new Thread(this::watchdogLoop, "DeviceWatchdogThread");
+        this.watchdogThread.setDaemon(true);
+        this.watchdogThread.start();
+    }
+
+    /**
+     * Sort an AcquireFingerprint return code
+     */
+    public static ErrorClass classify(int ret) {
+        if (ret == FingerprintSensorErrorCode.ZKFP_ERR_OK) {
+            return ErrorClass.OK;
+        }
+        if (ret == FingerprintSensorErrorCode.ZKFP_ERR_CAPTURE) {
+            // What the reader returns while nothing is on the glass
+            return ErrorClass.NO_FINGER;
+        }
+        if (ret == FingerprintSensorErrorCode.ZKFP_ERR_EXTRACT_FP
+                || ret == FingerprintSensorErrorCode.ZKFP_ERR_ANALYSE_IMG
+                || ret == FingerprintSensorErrorCode.ZKFP_ERR_LOADIMAGE) {
+            // An image was taken but no template could be made from it
+            return ErrorClass.BAD_IMAGE;
+        }
+        if (ret == FingerprintSensorErrorCode.ZKFP_ERR_NO_DEVICE
+                || ret == FingerprintSensorErrorCode.ZKFP_ERR_OPEN
+                || ret == FingerprintSensorErrorCode.ZKFP_ERR_INVALID_HANDLE
+                || ret == FingerprintSensorErrorCode.ZKFP_ERR_NOT_OPENED
+                || ret == FingerprintSensorErrorCode.ZKFP_ERR_NOT_INIT
+                || ret == FingerprintSensorErrorCode.ZKFP_ERR_INIT
+                || ret == FingerprintSensorErrorCode.ZKFP_ERR_INITLIB
+                || ret == FingerprintSensorErrorCode.ZKFP_ERR_ABSORT) {
+            return ErrorClass.DEVICE_FAULT;
+        }
+        // Busy, timeout, generic failure and codes we do not know
+        return ErrorClass.TRANSIENT;
+    }
+
+    /**
+     * Record the result of one capture attempt
+     * @return the class of the result
+     */
+    public ErrorClass record(int ret) {
+        ErrorClass errorClass = classify(ret);
+        polls.incrementAndGet();
+        switch (errorClass) {
+            case OK: captures.incrementAndGet(); break;
+            case NO_FINGER: noFinger.incrementAndGet(); break;
+            case BAD_IMAGE: badImages.incrementAndGet(); break;
+            case TRANSIENT: transientErrors.incrementAndGet(); break;
+            case DEVICE_FAULT: deviceFaults.incrementAndGet(); break;
+        }
+        boolean failure = errorClass == ErrorClass.TRANSIENT || errorClass == ErrorClass.DEVICE_FAULT;
+        if (failure || errorClass == ErrorClass.BAD_IMAGE) {
+            lastErrorCode = ret;
+            lastErrorAt = System.currentTimeMillis();
+        }
+
+        synchronized (this) {
+            countInWindow(failure);
+            if (!failure) {
+                if (state == State.DEGRADED) {
+                    state = State.CONNECTED;
+                }
+                consecutiveFailures = 0;
+                return errorClass;
+            }
+            consecutiveFailures++;
+            if (state == State.RECONNECTING) {
+                return errorClass;
+            }
+            if (consecutiveFailures < maxFailures) {
+                state = State.DEGRADED;
+                return errorClass;
+            }
+            log.warn("Reader lost after {} consecutive failures (last ret={}), reconnecting", consecutiveFailures, ret);
+            state = State.RECONNECTING;
+            disconnectedAt = System.currentTimeMillis();
+            notifyAll();
+        }
+        return errorClass;
+    }
+
+    /**
+     * Whether captures should be attempted (false while the watchdog is reconnecting)
+     */
+    public synchronized boolean isConnected() {
+        return state != State.RECONNECTING;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void watchdogLoop() {
+        while (running) {
+            synchronized (this) {
+                while (running && state != State.RECONNECTING) {
+                    try {
+                        wait(1000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            if (!running) {
+                return;
+            }
+
+            long backoffMs = minBackoffMs;
+            while (running) {
+                reconnectAttempts.incrementAndGet();
+                boolean reopened;
+                try {
+                    reopened = reopen.getAsBoolean();
+                } catch (RuntimeException e) {
+                    log.error("Reconnect attempt failed: {}", e.getMessage());
+                    reopened = false;
+                }
+                if (reopened) {
+                    long down;
+                    synchronized (this) {
+                        down = System.currentTimeMillis() - disconnectedAt;
+                        downtimeMs.addAndGet(down);
+                        consecutiveFailures = 0;
+                        state = State.CONNECTED;
+                    }
+                    reconnects.incrementAndGet();
+                    log.info("Reader reconnected after {}ms", down);
+                    onReconnected.run();
+                    break;
+                }
+                log.debug("Reader not available, next attempt in {}ms", backoffMs);
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoffMs = Math.min(maxBackoffMs, backoffMs * 2);
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        watchdogThread.interrupt();
+    }
+
+    // ==================== Metrics ====================
+
+    private void countInWindow(boolean error) {
+        long second = System.currentTimeMillis() / 1000;
+        int i = (int) (second % WINDOW_SECONDS);
+        if (windowSecond[i] != second) {
+            windowSecond[i] = second;
+            windowPolls[i] = 0;
+            windowErrors[i] = 0;
+        }
+        windowPolls[i]++;
+        if (error) {
+            windowErrors[i]++;
+        }
+    }
+
+    public static class Stats {
+        public String state;
+        public int consecutiveFailures;
+        public long polls;
+        public long captures;
+        public long noFinger;
+        public long badImages;
+        public long transientErrors;
+        public long deviceFaults;
+        public long errorsLastMinute;
+        public double errorRateLastMinute;
+        public int lastErrorCode;
+        public String lastErrorAt;
+        public long reconnectAttempts;
+        public long reconnects;
+        public long downtimeMs;
+    }
+
+    public Stats getStats() {
+        Stats s = new Stats();
+        long windowPollCount = 0;
+        synchronized (this) {
+            s.state = state.name().toLowerCase();
+            s.consecutiveFailures = consecutiveFailures;
+            long oldest = System.currentTimeMillis() / 1000 - WINDOW_SECONDS;
+            for (int i = 0; i < WINDOW_SECONDS; i++) {
+                if (windowSecond[i] > oldest) {
+                    windowPollCount += windowPolls[i];
+                    s.errorsLastMinute += windowErrors[i];
+                }
+            }
+            s.downtimeMs = downtimeMs.get() + (state == State.RECONNECTING
+                    ? System.currentTimeMillis() - disconnectedAt : 0);
+        }
+        s.errorRateLastMinute = windowPollCount > 0 ? (double) s.errorsLastMinute / windowPollCount : 0.0;
+        s.polls = polls.get();
+        s.captures = captures.get();
+        s.noFinger = noFinger.get();
+        s.badImages = badImages.get();
+        s.transientErrors = transientErrors.get();
+        s.deviceFaults = deviceFaults.get();
+        s.lastErrorCode = lastErrorCode;
+        long errorAt = lastErrorAt;
+        s.lastErrorAt = errorAt > 0 ? Instant.ofEpochMilli(errorAt).toString() : null;
+        s.reconnectAttempts = reconnectAttempts.get();
+        s.reconnects = reconnects.get();
+        return s;
+    }
+}
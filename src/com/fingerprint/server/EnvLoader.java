@@ -1,29 +1,94 @@
 package com.fingerprint.server;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.*;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * EnvLoader - Loads environment variables from .env file
+ *
+ * The parsed values are published as one immutable map through a volatile reference, so
+ * {@link #get(String)} stays a lock-free lookup while {@link #reload()} swaps in a new file.
  */
 public class EnvLoader {
-    private static final Map<String, String> envVars = new HashMap<>();
-    private static boolean loaded = false;
+    private static final Logger log = LoggerFactory.getLogger(EnvLoader.class);
+
+    private static volatile Map<String, String> envVars = Collections.emptyMap();
+    private static volatile boolean loaded = false;
+    private static String envFilename = ".env";
+    private static final List<Runnable> reloadListeners = new CopyOnWriteArrayList<>();
 
     public static void load() {
         load(".env");
     }
 
-    public static void load(String filename) {
+    public static synchronized void load(String filename) {
         if (loaded) return;
+        envFilename = filename;
         
         File envFile = new File(filename);
         if (!envFile.exists()) {
-            System.out.println("[EnvLoader] No .env file found at: " + envFile.getAbsolutePath());
+            log.info("No .env file found at: {}", envFile.getAbsolutePath());
             return;
         }
 
+        try {
+            envVars = parse(envFile);
+            loaded = true;
+            log.info("Loaded {} environment variables", envVars.size());
+        } catch (IOException e) {
+            log.error("Error loading .env file: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Re-read the .env file and atomically replace the current values, then notify listeners.
+     * Keeps the previous values if the file cannot be read.
+     */
+    public static void reload() {
+        synchronized (EnvLoader.class) {
+            File envFile = new File(envFilename);
+            try {
+                Map<String, String> next = envFile.exists() ? parse(envFile) : Collections.emptyMap();
+                if (next.equals(envVars)) {
+                    return;
+                }
+                envVars = next;
+                loaded = true;
+                log.info("Reloaded {} environment variables", next.size());
+            } catch (IOException e) {
+                log.error("Error reloading .env file, keeping previous values: {}", e.getMessage());
+                return;
+            }
+        }
+        for (Runnable listener : reloadListeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                log.error("Reload listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Register a callback run after every successful reload (for components that cache settings)
+     */
+    public static void addReloadListener(Runnable listener) {
+        reloadListeners.add(listener);
+    }
+
+    public static String getFilename() {
+        return envFilename;
+    }
+
+    private static Map<String, String> parse(File envFile) throws IOException {
+        Map<String, String> values = new HashMap<>();
         try (BufferedReader reader = new BufferedReader(new FileReader(envFile))) {
             String line;
             while ((line = reader.readLine()) != null) {
@@ -46,21 +111,20 @@ public class EnvLoader {
                         value = value.substring(1, value.length() - 1);
                     }
                     
-                    envVars.put(key, value);
+                    // System environment takes precedence, resolved once here instead of on every get
+                    String systemValue = System.getenv(key);
+                    values.put(key, systemValue != null ? systemValue : value);
                 }
             }
-            loaded = true;
-            System.out.println("[EnvLoader] Loaded " + envVars.size() + " environment variables");
-        } catch (IOException e) {
-            System.err.println("[EnvLoader] Error loading .env file: " + e.getMessage());
         }
+        return Collections.unmodifiableMap(values);
     }
 
     public static String get(String key) {
-        // First check system environment, then .env file
-        String value = System.getenv(key);
+        // .env values already carry system environment overrides; other keys fall back to the environment
+        String value = envVars.get(key);
         if (value == null) {
-            value = envVars.get(key);
+            value = System.getenv(key);
         }
         return value;
     }
@@ -69,4 +133,25 @@ public class EnvLoader {
         String value = get(key);
         return value != null ? value : defaultValue;
     }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim().equalsIgnoreCase("true") || value.trim().equals("1") || value.trim().equalsIgnoreCase("yes");
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid integer for {}: {}, using {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
 }
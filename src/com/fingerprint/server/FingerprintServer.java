@@ -5,13 +5,28 @@ import com.fingerprint.model.ExportData;
 import com.fingerprint.model.Registration;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+import spark.Response;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
 
 import static spark.Spark.*;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -19,44 +34,79 @@ import java.util.stream.Collectors;
  * FingerprintServer - REST API server for fingerprint management
  */
 public class FingerprintServer {
+    // Must run before the first logger is created anywhere
+    static {
+        LogConfig.init();
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(FingerprintServer.class);
+
     private static final int DEFAULT_PORT = 8080;
     private static final int DEFAULT_ENROLLMENT_TIMEOUT = 30; // seconds
+    private static final int DEFAULT_VERIFY_TIMEOUT = 10; // seconds
+    private static final int CHANGES_PAGE_MAX = 1000;
+    private static final int DEFAULT_PLATFORM_MAX_THREADS = 200; // Spark's default
+    private static final int DEFAULT_VIRTUAL_MAX_THREADS = 10000;
 
     private final StorageService storageService;
     private final WebhookService webhookService;
     private final FingerprintService fingerprintService;
     private final Gson gson;
+    private AuthService authService;
+    private AdmissionControl admissionControl;
+    private DedupService dedupService;
+    private ReplicationLeader replicationLeader;
+    private ReplicationFollower replicationFollower;
+    private ClusterService clusterService;
+    private FlightRecorderService flightRecorder;
+    private ConfigWatcher configWatcher;
+    private int runningPort;
 
     public FingerprintServer() {
+        // StorageService reads its change feed sizes from .env
+        EnvLoader.load();
         this.gson = new GsonBuilder().setPrettyPrinting().create();
         this.storageService = new StorageService();
         this.webhookService = new WebhookService();
         this.fingerprintService = FingerprintService.getInstance();
+        this.dedupService = new DedupService(storageService, fingerprintService);
+        this.flightRecorder = new FlightRecorderService(storageService);
     }
 
     public void start() {
         // Load environment variables first
         EnvLoader.load();
+        authService = new AuthService();
+        admissionControl = new AdmissionControl();
+        replicationLeader = new ReplicationLeader(storageService);
         
         System.out.println("============================================================");
         System.out.println("  Fingerprint REST API Server - Starting");
         System.out.println("============================================================");
 
-        // Initialize fingerprint service
-        if (!fingerprintService.initialize(storageService, webhookService)) {
-            System.err.println("Failed to initialize fingerprint service!");
-            System.err.println("Please ensure:");
-            System.err.println("  1. Fingerprint reader is connected");
-            System.err.println("  2. ZKTeco drivers are installed");
-            System.err.println("  3. No other application is using the device");
-            return;
-        }
-
         // Configure Spark
         int port = storageService.getServerPort();
         if (port <= 0) port = DEFAULT_PORT;
+        runningPort = port;
         port(port);
 
+        // Follower mode: registrations come only from the leader
+        String leaderUrl = EnvLoader.get("REPLICATION_LEADER_URL", "").trim();
+        if (!leaderUrl.isEmpty()) {
+            replicationFollower = new ReplicationFollower(leaderUrl,
+                    EnvLoader.get("REPLICATION_LEADER_KEY", ""),
+                    EnvLoader.get("REPLICATION_FOLLOWER_NAME", localHostName() + ":" + port),
+                    storageService, fingerprintService);
+        }
+
+        // Cluster mode: registrations are partitioned across CLUSTER_NODES, identify searches all of them
+        if (!EnvLoader.get("CLUSTER_NODES", "").trim().isEmpty()) {
+            clusterService = new ClusterService(EnvLoader.get("CLUSTER_SELF", "http://localhost:" + port),
+                    storageService, fingerprintService);
+            fingerprintService.setRemoteIdentifier(clusterService::identifyRemote);
+        }
+        configureThreadPool();
+
         // Enable CORS
         before((request, response) -> {
             response.header("Access-Control-Allow-Origin", "*");
@@ -81,21 +131,59 @@ public class FingerprintServer {
                 return;
             }
             
-            String internalKey = EnvLoader.get("INTERNAL_KEY");
-            if (internalKey == null || internalKey.isEmpty() || internalKey.equals("your-internal-api-key-here")) {
-                // No auth configured, allow all
+            AuthService.Result auth = authService.check(request.headers("Authorization"),
+                    AuthService.requiredScope(request.requestMethod(), request.pathInfo()));
+            if (!auth.isAllowed()) {
+                if (auth.retryAfterMs > 0) {
+                    response.header("Retry-After", String.valueOf((auth.retryAfterMs + 999) / 1000));
+                }
+                halt(auth.status, errorJson(auth.error));
+            }
+            if (auth.key != null) {
+                request.attribute("apiKey", auth.key);
+            }
+        });
+
+        // A follower only changes registrations by replicating them from its leader
+        before("/api/*", (request, response) -> {
+            if (replicationFollower != null && isRegistrationWrite(request.requestMethod(), request.pathInfo())) {
+                halt(403, errorJson("Read-only replication follower; send registration changes to "
+                        + replicationFollower.getLeaderUrl()));
+            }
+        });
+
+        // Sensor and matcher routes wait for the background warm-up; admin routes do not
+        before("/api/*", (request, response) -> {
+            if (request.requestMethod().equals("OPTIONS") || fingerprintService.isInitialized()) {
                 return;
             }
-            
-            String authHeader = request.headers("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                halt(401, "{\"error\": \"Missing or invalid Authorization header\"}");
+
+            if (requiresMatcher(request.requestMethod(), request.pathInfo())) {
+                FingerprintService.WarmupStatus warmup = fingerprintService.getWarmupStatus();
+                JsonObject error = new JsonObject();
+                error.addProperty("error", warmup.error != null
+                        ? "Fingerprint device not available: " + warmup.error
+                        : "Fingerprint matcher is loading");
+                error.add("warmup", gson.toJsonTree(warmup));
+                response.header("Retry-After", "5");
+                halt(503, gson.toJson(error));
+            }
+        });
+
+        // Admission control for expensive routes (per client rate + route concurrency)
+        before("/api/*", (request, response) -> {
+            if (request.requestMethod().equals("OPTIONS")) {
                 return;
             }
-            
-            String providedKey = authHeader.substring(7); // Remove "Bearer "
-            if (!providedKey.equals(internalKey)) {
-                halt(403, "{\"error\": \"Invalid API key\"}");
+
+            AdmissionControl.Decision decision = admissionControl.admit(request.requestMethod(), request.pathInfo(),
+                    admissionClient(request));
+            if (!decision.isAdmitted()) {
+                response.header("Retry-After", String.valueOf((decision.retryAfterMs + 999) / 1000));
+                halt(429, errorJson(decision.error));
+            }
+            if (decision.route != null) {
+                request.attribute("admissionRoute", decision.route);
             }
         });
 
@@ -105,6 +193,10 @@ public class FingerprintServer {
             if (request.requestMethod().equals("OPTIONS")) {
                 return;
             }
+            AdmissionControl.Route admitted = request.attribute("admissionRoute");
+            if (admitted != null) {
+                admitted.release();
+            }
             LogService.logApiRequest(
                 request.requestMethod(),
                 request.pathInfo(),
@@ -114,14 +206,49 @@ public class FingerprintServer {
 
         // ==================== Routes ====================
 
+        // Liveness: the process is up and answering HTTP
+        get("/health/live", (req, res) -> {
+            JsonObject live = new JsonObject();
+            live.addProperty("status", "up");
+            return gson.toJson(live);
+        });
+
+        // Readiness: the device is open and every template is loaded (503 with progress until then)
+        get("/health/ready", (req, res) -> {
+            FingerprintService.WarmupStatus warmup = fingerprintService.getWarmupStatus();
+            if (!warmup.ready) {
+                res.status(503);
+            }
+            return gson.toJson(warmup);
+        });
+
         // Status endpoint
         get("/api/status", (req, res) -> {
             JsonObject status = new JsonObject();
             status.addProperty("initialized", fingerprintService.isInitialized());
+            status.add("warmup", gson.toJsonTree(fingerprintService.getWarmupStatus()));
             status.addProperty("identificationRunning", fingerprintService.isIdentificationRunning());
             status.addProperty("enrollmentInProgress", fingerprintService.isEnrollmentInProgress());
+            status.addProperty("deviceMode", fingerprintService.getDeviceMode().name().toLowerCase());
+            status.add("device", gson.toJsonTree(fingerprintService.getDeviceStats()));
             status.addProperty("registeredCount", fingerprintService.getRegisteredCount());
+            status.addProperty("identificationScope", fingerprintService.getIdentificationScope());
             status.addProperty("webhookUrl", EnvLoader.get("WEBHOOK_URL", ""));
+            status.add("webhook", gson.toJsonTree(webhookService.getStats()));
+            status.add("changeFeed", gson.toJsonTree(storageService.getChangeFeed().getStats()));
+            status.add("replication", replicationFollower != null
+                    ? gson.toJsonTree(replicationFollower.getStats())
+                    : gson.toJsonTree(replicationLeader.getStats()));
+            if (clusterService != null) {
+                status.add("cluster", gson.toJsonTree(clusterService.getStats()));
+            }
+            status.add("identifyCache", gson.toJsonTree(fingerprintService.getRecentMatchCacheStats()));
+            status.add("verifyCache", gson.toJsonTree(fingerprintService.getVerifyCacheStats()));
+            status.add("captureArchive", gson.toJsonTree(fingerprintService.getCaptureArchiverStats()));
+            status.add("scanLoop", gson.toJsonTree(fingerprintService.getScanLoopStats()));
+            status.add("logging", gson.toJsonTree(LogConfig.getStats()));
+            status.add("admission", gson.toJsonTree(admissionControl.getStats()));
+            status.add("jfr", gson.toJsonTree(flightRecorder.getStats()));
             return gson.toJson(status);
         });
 
@@ -131,6 +258,7 @@ public class FingerprintServer {
             
             String name = getJsonString(body, "name");
             String role = getJsonString(body, "role");
+            List<String> groups = getJsonStringList(body, "groups");
             int timeout = body.has("timeout") ? body.get("timeout").getAsInt() : DEFAULT_ENROLLMENT_TIMEOUT;
 
             if (name == null || name.isEmpty()) {
@@ -160,22 +288,33 @@ public class FingerprintServer {
                 LogService.logApiRequest("POST", "/api/register", 409, "Duplicate name: " + name);
                 return gson.toJson(response);
             }
+            String nameConflict = clusterNameConflict(res, name);
+            if (nameConflict != null) {
+                LogService.logApiRequest("POST", "/api/register", 409, "Duplicate name: " + name);
+                return nameConflict;
+            }
 
-            System.out.println("[Server] Registration request: name=" + name + ", role=" + role);
+            log.info("Registration request: name={}, role={}, groups={}", name, role, groups);
 
-            FingerprintService.EnrollmentResult result = fingerprintService.enroll(name, role, timeout);
+            FingerprintService.EnrollmentResult result = fingerprintService.enroll(name, role, groups, timeout);
 
             if (result.success) {
                 res.status(201);
                 Optional<Registration> reg = storageService.getRegistrationById(result.registrationId);
+                handOff(result.registrationId);
+                JsonObject response;
                 if (reg.isPresent()) {
-                    return gson.toJson(registrationToPublicJson(reg.get()));
+                    response = registrationToPublicJson(reg.get());
+                } else {
+                    response = new JsonObject();
+                    response.addProperty("id", result.registrationId);
+                    response.addProperty("name", name);
+                    response.addProperty("role", role);
+                    response.addProperty("message", result.message);
+                }
+                if (result.quality != null) {
+                    response.add("quality", gson.toJsonTree(result.quality));
                 }
-                JsonObject response = new JsonObject();
-                response.addProperty("id", result.registrationId);
-                response.addProperty("name", name);
-                response.addProperty("role", role);
-                response.addProperty("message", result.message);
                 return gson.toJson(response);
             } else {
                 res.status(409); // Conflict
@@ -191,13 +330,52 @@ public class FingerprintServer {
 
         // List all fingerprints
         get("/api/fingerprints", (req, res) -> {
-            List<Registration> registrations = storageService.getAllRegistrations();
-            List<JsonObject> publicList = registrations.stream()
+            RegistrationSnapshot snapshot = storageService.getSnapshot();
+            // Sequence of this listing, to continue from with GET /api/changes
+            res.header("X-Change-Seq", String.valueOf(snapshot.getVersion()));
+            List<JsonObject> publicList = snapshot.getRegistrations().stream()
                     .map(this::registrationToPublicJson)
                     .collect(Collectors.toList());
             return gson.toJson(publicList);
         });
 
+        // Adds and deletes after a sequence number: ?since=<seq>&limit=<n>&wait=<seconds>
+        get("/api/changes", (req, res) -> {
+            long since;
+            int limit;
+            int wait;
+            try {
+                since = Long.parseLong(Objects.toString(req.queryParams("since"), "0"));
+                limit = Integer.parseInt(Objects.toString(req.queryParams("limit"), String.valueOf(CHANGES_PAGE_MAX)));
+                wait = Integer.parseInt(Objects.toString(req.queryParams("wait"), "0"));
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return errorJson("since, limit and wait must be numbers");
+            }
+            limit = Math.max(1, Math.min(limit, CHANGES_PAGE_MAX));
+            wait = Math.max(0, Math.min(wait, EnvLoader.getInt("CHANGES_MAX_WAIT_SECONDS", 25)));
+            return gson.toJson(storageService.getChangeFeed().read(since, limit, wait * 1000L));
+        });
+
+        // Changes with templates for follower servers: ?since=<seq>&limit=<n>&wait=<seconds>&follower=<name>
+        get("/api/replication/changes", (req, res) -> {
+            long since;
+            int limit;
+            int wait;
+            try {
+                since = Long.parseLong(Objects.toString(req.queryParams("since"), "0"));
+                limit = Integer.parseInt(Objects.toString(req.queryParams("limit"), String.valueOf(CHANGES_PAGE_MAX)));
+                wait = Integer.parseInt(Objects.toString(req.queryParams("wait"), "0"));
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return errorJson("since, limit and wait must be numbers");
+            }
+            limit = Math.max(1, Math.min(limit, CHANGES_PAGE_MAX));
+            wait = Math.max(0, Math.min(wait, EnvLoader.getInt("CHANGES_MAX_WAIT_SECONDS", 25)));
+            String follower = Objects.toString(req.queryParams("follower"), req.ip());
+            return gson.toJson(replicationLeader.read(follower, since, limit, wait * 1000L));
+        });
+
         // Get single fingerprint
         get("/api/fingerprints/:id", (req, res) -> {
             String id = req.params(":id");
@@ -216,6 +394,12 @@ public class FingerprintServer {
             String id = req.params(":id");
             Optional<Registration> reg = storageService.getRegistrationById(id);
             
+            String templateBase64 = reg.isPresent() ? storageService.getTemplateBase64(id) : null;
+            if (reg.isPresent() && templateBase64 == null) {
+                res.status(500);
+                return errorJson("Template data missing for fingerprint: " + id);
+            }
+
             if (reg.isPresent()) {
                 Registration r = reg.get();
                 ExportData export = new ExportData();
@@ -224,7 +408,8 @@ public class FingerprintServer {
                 ExportData.FingerprintData fpData = new ExportData.FingerprintData();
                 fpData.setName(r.getName());
                 fpData.setRole(r.getRole());
-                fpData.setTemplateBase64(r.getTemplateBase64());
+                fpData.setTemplateBase64(templateBase64);
+                fpData.setGroups(r.getGroups());
                 fpData.setOriginalCreatedAt(r.getCreatedAt());
                 export.setFingerprint(fpData);
 
@@ -256,9 +441,29 @@ public class FingerprintServer {
                 return errorJson("Template data is required");
             }
 
+            // The local duplicate checks only see this node's partition
+            String nameConflict = clusterNameConflict(res, fp.getName());
+            if (nameConflict != null) {
+                return nameConflict;
+            }
+            if (clusterService != null) {
+                JsonObject probe = new JsonObject();
+                probe.addProperty("template", fp.getTemplateBase64());
+                ClusterService.ScatterResult duplicate = clusterService.identify(probe, 1, null);
+                if (!duplicate.candidates.isEmpty()) {
+                    res.status(409);
+                    JsonObject response = new JsonObject();
+                    response.addProperty("error", "Fingerprint already registered");
+                    response.addProperty("existingUserId", duplicate.candidates.get(0).get("id").getAsString());
+                    response.addProperty("existingUserName", duplicate.candidates.get(0).get("name").getAsString());
+                    return gson.toJson(response);
+                }
+            }
+
             FingerprintService.EnrollmentResult result = fingerprintService.importFingerprint(
                 fp.getName(),
                 fp.getRole(),
+                fp.getGroups(),
                 fp.getTemplateBase64(),
                 fp.getOriginalCreatedAt()
             );
@@ -266,6 +471,7 @@ public class FingerprintServer {
             if (result.success) {
                 res.status(201);
                 Optional<Registration> reg = storageService.getRegistrationById(result.registrationId);
+                handOff(result.registrationId);
                 if (reg.isPresent()) {
                     JsonObject response = registrationToPublicJson(reg.get());
                     response.addProperty("message", "Import successful");
@@ -290,7 +496,14 @@ public class FingerprintServer {
         // Delete fingerprint
         delete("/api/fingerprints/:id", (req, res) -> {
             String id = req.params(":id");
-            boolean deleted = storageService.deleteRegistration(id);
+            if (!TemplateStore.isValidId(id)) {
+                res.status(400);
+                return errorJson("Registration id must be a UUID");
+            }
+            boolean deleted = fingerprintService.deleteRegistration(id);
+            if (!deleted && clusterService != null) {
+                deleted = clusterService.deleteElsewhere(id) != null;
+            }
             
             if (deleted) {
                 JsonObject response = new JsonObject();
@@ -311,10 +524,20 @@ public class FingerprintServer {
         // Update config (serverPort only, webhookUrl is in .env)
         put("/api/config", (req, res) -> {
             Config newConfig = gson.fromJson(req.body(), Config.class);
+            Config previous = storageService.getConfig();
             storageService.updateConfig(newConfig);
+            applyConfigChange(previous);
             return gson.toJson(storageService.getConfig());
         });
 
+        // List identification scopes with their partition sizes
+        get("/api/scopes", (req, res) -> {
+            return gson.toJson(fingerprintService.getScopes());
+        });
+
+        // API key usage (admin scope)
+        get("/api/auth/stats", (req, res) -> gson.toJson(authService.getStats()));
+
         // Get webhook URL (read-only, from .env)
         get("/api/config/webhook", (req, res) -> {
             JsonObject response = new JsonObject();
@@ -323,12 +546,24 @@ public class FingerprintServer {
             return gson.toJson(response);
         });
 
-        // Start identification
+        // Start identification, optionally restricted to a scope: {"scope": "admins"}
         post("/api/identification/start", (req, res) -> {
+            if (req.body() != null && !req.body().trim().isEmpty()) {
+                JsonObject body = JsonParser.parseString(req.body()).getAsJsonObject();
+                if (body.has("scope")) {
+                    String scope = getJsonString(body, "scope");
+                    if (scope != null && !fingerprintService.hasScope(scope)) {
+                        res.status(400);
+                        return errorJson("Unknown identification scope: " + scope);
+                    }
+                    fingerprintService.setIdentificationScope(scope);
+                }
+            }
             fingerprintService.startIdentification();
             JsonObject response = new JsonObject();
             response.addProperty("message", "Identification started");
             response.addProperty("running", true);
+            response.addProperty("scope", fingerprintService.getIdentificationScope());
             return gson.toJson(response);
         });
 
@@ -341,10 +576,323 @@ public class FingerprintServer {
             return gson.toJson(response);
         });
 
+        // ==================== Identify API ====================
+
+        // Identify a template: top-K candidates within a scope
+        post("/api/identify", (req, res) -> {
+            JsonObject body = JsonParser.parseString(req.body()).getAsJsonObject();
+            String scope = getJsonString(body, "scope");
+            if (scope != null && !fingerprintService.hasScope(scope)) {
+                res.status(400);
+                return errorJson("Unknown identification scope: " + scope);
+            }
+            byte[] template = FingerprintService.decodeTemplate(getJsonString(body, "template"));
+            if (template == null) {
+                res.status(400);
+                return errorJson("A valid Base64 template is required");
+            }
+            int topK = getTopK(body);
+
+            // A top-K identify sweeps the scope 1:1, so it is rate limited like a batch
+            if (topK > 1) {
+                AdmissionControl.Decision decision = admissionControl.admitRoute("identify-top-k", admissionClient(req));
+                if (!decision.isAdmitted()) {
+                    res.header("Retry-After", String.valueOf((decision.retryAfterMs + 999) / 1000));
+                    res.status(429);
+                    return errorJson(decision.error);
+                }
+                if (decision.route != null) {
+                    req.attribute("admissionRoute", decision.route);
+                }
+            }
+
+            JsonObject response;
+            if (clusterService != null) {
+                ClusterService.ScatterResult result = clusterService.identify(body, topK,
+                        () -> candidatesToJson(fingerprintService.identifyCandidates(List.of(template), scope, topK).get(0)));
+                response = new JsonObject();
+                response.addProperty("matched", !result.candidates.isEmpty());
+                response.add("candidates", gson.toJsonTree(result.candidates));
+                JsonObject cluster = new JsonObject();
+                cluster.addProperty("nodes", result.nodes);
+                cluster.addProperty("answered", result.answered);
+                cluster.add("missing", gson.toJsonTree(result.missing));
+                cluster.addProperty("partial", result.partial);
+                cluster.addProperty("elapsedMs", result.elapsedMs);
+                response.add("cluster", cluster);
+            } else {
+                response = candidatesToJson(fingerprintService.identifyCandidates(List.of(template), scope, topK).get(0));
+            }
+            response.addProperty("scope", scope);
+            response.addProperty("threshold", fingerprintService.getThreshold(scope));
+            return gson.toJson(response);
+        });
+
+        // Identify many templates in one call (no reader needed)
+        post("/api/identify/batch", (req, res) -> {
+            JsonObject body = JsonParser.parseString(req.body()).getAsJsonObject();
+            String scope = getJsonString(body, "scope");
+            if (scope != null && !fingerprintService.hasScope(scope)) {
+                res.status(400);
+                return errorJson("Unknown identification scope: " + scope);
+            }
+            if (!body.has("templates") || !body.get("templates").isJsonArray()
+                    || body.getAsJsonArray("templates").size() == 0) {
+                res.status(400);
+                return errorJson("templates must be a non-empty array of Base64 templates");
+            }
+            JsonArray encoded = body.getAsJsonArray("templates");
+            int maxBatch = EnvLoader.getInt("IDENTIFY_BATCH_MAX", 500);
+            if (encoded.size() > maxBatch) {
+                res.status(400);
+                return errorJson("Batch too large, at most " + maxBatch + " templates per call");
+            }
+            int topK = getTopK(body);
+
+            // Keep positions aligned with the request; invalid entries are reported per item
+            List<byte[]> templates = new ArrayList<>(encoded.size());
+            for (JsonElement item : encoded) {
+                templates.add(item.isJsonNull() ? null : FingerprintService.decodeTemplate(item.getAsString()));
+            }
+
+            long start = System.currentTimeMillis();
+            List<List<FingerprintService.Candidate>> results = fingerprintService.identifyCandidates(templates, scope, topK);
+
+            JsonArray items = new JsonArray();
+            for (int i = 0; i < results.size(); i++) {
+                JsonObject item = candidatesToJson(results.get(i));
+                item.addProperty("index", i);
+                if (templates.get(i) == null) {
+                    item.addProperty("error", "Invalid template data");
+                }
+                items.add(item);
+            }
+            JsonObject response = new JsonObject();
+            response.addProperty("scope", scope);
+            response.addProperty("threshold", fingerprintService.getThreshold(scope));
+            response.addProperty("elapsedMs", System.currentTimeMillis() - start);
+            response.add("results", items);
+            return gson.toJson(response);
+        });
+
+        // ==================== Cluster API ====================
+
+        // Probed by the other nodes to build the ring
+        get("/api/cluster/node", (req, res) -> {
+            if (clusterService == null) {
+                res.status(404);
+                return errorJson("Cluster mode is off");
+            }
+            return gson.toJson(clusterService.getNodeInfo());
+        });
+
+        get("/api/cluster/status", (req, res) -> {
+            if (clusterService == null) {
+                res.status(404);
+                return errorJson("Cluster mode is off");
+            }
+            return gson.toJson(clusterService.getStats());
+        });
+
+        // Identify against this node's partition only (the fan-out target of /api/identify)
+        post("/api/cluster/identify", (req, res) -> {
+            if (clusterService == null) {
+                res.status(404);
+                return errorJson("Cluster mode is off");
+            }
+            JsonObject body = JsonParser.parseString(req.body()).getAsJsonObject();
+            String scope = getJsonString(body, "scope");
+            if (scope != null && !fingerprintService.hasScope(scope)) {
+                res.status(400);
+                return errorJson("Unknown identification scope: " + scope);
+            }
+            byte[] template = FingerprintService.decodeTemplate(getJsonString(body, "template"));
+            if (template == null) {
+                res.status(400);
+                return errorJson("A valid Base64 template is required");
+            }
+            return gson.toJson(candidatesToJson(
+                    fingerprintService.identifyCandidates(List.of(template), scope, getTopK(body)).get(0)));
+        });
+
+        // Registration with a given name on this node (for the cluster-wide name check)
+        get("/api/cluster/registrations", (req, res) -> {
+            if (clusterService == null) {
+                res.status(404);
+                return errorJson("Cluster mode is off");
+            }
+            String name = req.queryParams("name");
+            if (name == null || name.isEmpty()) {
+                res.status(400);
+                return errorJson("name is required");
+            }
+            Optional<Registration> existing = storageService.getRegistrationByName(name);
+            if (!existing.isPresent()) {
+                res.status(404);
+                return errorJson("Fingerprint not found");
+            }
+            return gson.toJson(registrationToPublicJson(existing.get()));
+        });
+
+        // Take over a registration moved here by another node
+        post("/api/cluster/registrations", (req, res) -> {
+            if (clusterService == null) {
+                res.status(404);
+                return errorJson("Cluster mode is off");
+            }
+            JsonObject body = JsonParser.parseString(req.body()).getAsJsonObject();
+            Registration registration = gson.fromJson(body.get("registration"), Registration.class);
+            String templateBase64 = getJsonString(body, "templateBase64");
+            if (registration == null || registration.getId() == null || templateBase64 == null) {
+                res.status(400);
+                return errorJson("registration and templateBase64 are required");
+            }
+            if (!TemplateStore.isValidId(registration.getId())) {
+                res.status(400);
+                return errorJson("Registration id must be a UUID");
+            }
+            if (!clusterService.receive(registration, templateBase64)) {
+                res.status(409);
+                return errorJson("Could not store registration (name already registered on this node?)");
+            }
+            res.status(201);
+            return gson.toJson(registrationToPublicJson(registration));
+        });
+
+        // Delete from this node only (used by DELETE /api/fingerprints/:id on the other nodes)
+        delete("/api/cluster/registrations/:id", (req, res) -> {
+            if (clusterService == null) {
+                res.status(404);
+                return errorJson("Cluster mode is off");
+            }
+            String id = req.params(":id");
+            if (fingerprintService.deleteRegistration(id)) {
+                JsonObject response = new JsonObject();
+                response.addProperty("message", "Fingerprint deleted");
+                response.addProperty("id", id);
+                return gson.toJson(response);
+            }
+            res.status(404);
+            return errorJson("Fingerprint not found");
+        });
+
+        // Leave the ring and move every registration here to the other nodes
+        post("/api/cluster/drain", (req, res) -> {
+            if (clusterService == null) {
+                res.status(404);
+                return errorJson("Cluster mode is off");
+            }
+            clusterService.drain();
+            return gson.toJson(clusterService.getStats());
+        });
+
+        // ==================== Verify API ====================
+
+        // 1:1 verification: capture one finger and match it against a claimed registration only
+        post("/api/verify/:id", (req, res) -> {
+            String id = req.params(":id");
+            Optional<Registration> reg = storageService.getRegistrationById(id);
+            if (!reg.isPresent()) {
+                res.status(404);
+                return errorJson("Fingerprint not found");
+            }
+            int timeout = DEFAULT_VERIFY_TIMEOUT;
+            if (!req.body().isEmpty()) {
+                JsonObject body = JsonParser.parseString(req.body()).getAsJsonObject();
+                if (body.has("timeout")) {
+                    timeout = body.get("timeout").getAsInt();
+                }
+            }
+            // The reader and sensor lock are held for the whole wait
+            timeout = Math.max(1, Math.min(timeout, EnvLoader.getInt("VERIFY_MAX_TIMEOUT", 30)));
+
+            long start = System.currentTimeMillis();
+            FingerprintService.VerificationResult result = fingerprintService.verify(reg.get(), timeout);
+            if (!result.success) {
+                res.status(result.timedOut ? 408 : 409);
+                return errorJson(result.message);
+            }
+
+            JsonObject response = new JsonObject();
+            response.addProperty("id", id);
+            response.addProperty("name", reg.get().getName());
+            response.addProperty("matched", result.matched);
+            response.addProperty("score", result.score);
+            response.addProperty("threshold", result.threshold);
+            response.addProperty("matchMicros", result.matchMicros);
+            response.addProperty("elapsedMs", System.currentTimeMillis() - start);
+            return gson.toJson(response);
+        });
+
+        // ==================== Deduplication ====================
+
+        // Start an offline duplicate sweep over all stored templates
+        post("/api/dedup/start", (req, res) -> {
+            int threshold = EnvLoader.getInt("DEDUP_THRESHOLD", 70);
+            boolean resume = false;
+            if (req.body() != null && !req.body().trim().isEmpty()) {
+                JsonObject body = JsonParser.parseString(req.body()).getAsJsonObject();
+                if (body.has("threshold")) threshold = body.get("threshold").getAsInt();
+                if (body.has("resume")) resume = body.get("resume").getAsBoolean();
+            }
+            if (!dedupService.start(threshold, resume)) {
+                res.status(409);
+                return errorJson("A dedup job is already running");
+            }
+            res.status(202);
+            return gson.toJson(dedupService.getStatus());
+        });
+
+        // Dedup job progress
+        get("/api/dedup/status", (req, res) -> gson.toJson(dedupService.getStatus()));
+
+        // Cancel the running dedup job (a checkpoint is kept for resume)
+        post("/api/dedup/cancel", (req, res) -> {
+            if (!dedupService.cancel()) {
+                res.status(409);
+                return errorJson("No dedup job is running");
+            }
+            JsonObject response = new JsonObject();
+            response.addProperty("message", "Cancellation requested");
+            return gson.toJson(response);
+        });
+
+        // ==================== Flight Recorder ====================
+
+        // Start a JFR recording with the JFR_PROFILE event settings
+        post("/api/jfr/start", (req, res) -> {
+            if (!flightRecorder.start()) {
+                res.status(409);
+                return errorJson("A flight recording is already running");
+            }
+            return gson.toJson(flightRecorder.getStats());
+        });
+
+        // Write the running recording to data/jfr and keep recording
+        post("/api/jfr/dump", (req, res) -> {
+            FlightRecorderService.Dump dump = flightRecorder.dump();
+            if (dump == null) {
+                res.status(409);
+                return errorJson("No flight recording is running");
+            }
+            return gson.toJson(dump);
+        });
+
+        // Dump the running recording and stop it
+        post("/api/jfr/stop", (req, res) -> {
+            FlightRecorderService.Dump dump = flightRecorder.stop();
+            if (dump == null) {
+                res.status(409);
+                return errorJson("No flight recording is running");
+            }
+            return gson.toJson(dump);
+        });
+
+        get("/api/jfr/status", (req, res) -> gson.toJson(flightRecorder.getStats()));
+
         // Exception handling
         exception(Exception.class, (e, req, res) -> {
-            System.err.println("[Server] Error: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error handling {} {}: {}", req.requestMethod(), req.pathInfo(), e.getMessage(), e);
             res.status(500);
             res.type("application/json");
             res.body(errorJson("Internal server error: " + e.getMessage()));
@@ -352,23 +900,56 @@ public class FingerprintServer {
 
         // Set up identification callback
         fingerprintService.setOnFingerprintIdentified((registration, score) -> {
-            System.out.println("[Server] Fingerprint identified: " + registration.getName());
+            log.debug("Fingerprint identified: {}", registration.getName());
             webhookService.notifyFingerprintDetected(registration, score);
         });
 
-        // Start identification by default
-        fingerprintService.startIdentification();
+        // Pick up edits to .env and config.json without a restart
+        if (EnvLoader.getBoolean("CONFIG_WATCH", true)) {
+            configWatcher = new ConfigWatcher(Paths.get("."))
+                .watch(".env", EnvLoader::reload)
+                .watch("config.json", () -> {
+                    Config previous = storageService.getConfig();
+                    if (storageService.reloadConfig()) {
+                        applyConfigChange(previous);
+                    }
+                });
+            configWatcher.start();
+        }
 
         // Shutdown hook
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("\n[Server] Shutting down...");
+            log.info("Shutting down...");
+            if (configWatcher != null) {
+                configWatcher.stop();
+            }
             webhookService.shutdown();
+            if (replicationFollower != null) {
+                replicationFollower.stop();
+            }
+            if (clusterService != null) {
+                clusterService.stop();
+            }
             fingerprintService.shutdown();
+            flightRecorder.shutdown();
             stop();
+            LogConfig.shutdown();
         }));
 
         awaitInitialization();
 
+        // Open the device and load the matcher in the background; identification starts once ready
+        fingerprintService.initializeInBackground(storageService, webhookService, () -> {
+            log.info("Matcher ready, starting identification");
+            fingerprintService.startIdentification();
+        });
+        if (replicationFollower != null) {
+            replicationFollower.start();
+        }
+        if (clusterService != null) {
+            clusterService.start();
+        }
+
         System.out.println("============================================================");
         System.out.println("  Fingerprint REST API Server - Running");
         System.out.println("============================================================");
@@ -376,25 +957,97 @@ public class FingerprintServer {
         System.out.println("  Registered fingerprints: " + fingerprintService.getRegisteredCount());
         String webhookUrl = EnvLoader.get("WEBHOOK_URL", "");
         System.out.println("  Webhook URL: " + (webhookUrl.isEmpty() ? "(not configured)" : webhookUrl));
+        System.out.println("  Replication: " + (replicationFollower != null
+                ? "following " + replicationFollower.getLeaderUrl() : "leader"));
+        if (clusterService != null) {
+            System.out.println("  Cluster node: " + clusterService.getSelf());
+        }
         System.out.println("============================================================");
         System.out.println("  Endpoints:");
+        System.out.println("    GET    /health/live             - Liveness probe");
+        System.out.println("    GET    /health/ready            - Readiness probe (matcher load progress)");
         System.out.println("    GET    /api/status              - Server status");
         System.out.println("    POST   /api/register            - Register new fingerprint");
         System.out.println("    GET    /api/fingerprints        - List all fingerprints");
+        System.out.println("    GET    /api/changes?since=      - Registration changes (long-poll with wait=)");
+        System.out.println("    GET    /api/replication/changes - Changes with templates, for followers");
         System.out.println("    GET    /api/fingerprints/:id    - Get fingerprint by ID");
         System.out.println("    GET    /api/fingerprints/:id/export - Export fingerprint");
         System.out.println("    POST   /api/fingerprints/import - Import fingerprint");
         System.out.println("    DELETE /api/fingerprints/:id    - Delete fingerprint");
+        System.out.println("    GET    /api/scopes              - List identification scopes");
         System.out.println("    GET    /api/config              - Get config");
         System.out.println("    PUT    /api/config              - Update config");
         System.out.println("    PUT    /api/config/webhook      - Update webhook URL");
+        System.out.println("    GET    /api/auth/stats          - API key usage");
         System.out.println("    POST   /api/identification/start - Start identification");
         System.out.println("    POST   /api/identification/stop  - Stop identification");
+        System.out.println("    POST   /api/identify            - Identify a template (top-K)");
+        System.out.println("    POST   /api/identify/batch      - Identify many templates");
+        System.out.println("    POST   /api/verify/:id          - Verify a finger against one registration");
+        System.out.println("    GET    /api/cluster/status      - Cluster nodes, ring shares and moves");
+        System.out.println("    POST   /api/cluster/drain       - Move this node's registrations away");
+        System.out.println("    POST   /api/dedup/start         - Start duplicate sweep");
+        System.out.println("    GET    /api/dedup/status        - Duplicate sweep progress");
+        System.out.println("    POST   /api/dedup/cancel        - Cancel duplicate sweep");
+        System.out.println("    POST   /api/jfr/start           - Start a flight recording");
+        System.out.println("    POST   /api/jfr/dump            - Dump the flight recording to data/jfr");
+        System.out.println("    POST   /api/jfr/stop            - Dump and stop the flight recording");
+        System.out.println("    GET    /api/jfr/status          - Flight recording state");
         System.out.println("============================================================");
         System.out.println("  Press Ctrl+C to stop the server");
         System.out.println("============================================================");
     }
 
+    // ==================== Config Changes ====================
+
+    /**
+     * Apply a changed config.json (from PUT /api/config or an edit on disk)
+     */
+    private void applyConfigChange(Config previous) {
+        Config current = storageService.getConfig();
+        fingerprintService.reloadScopes();
+        if (!Objects.equals(previous.getIdentificationScope(), current.getIdentificationScope())) {
+            fingerprintService.setIdentificationScope(current.getIdentificationScope());
+        }
+        if (current.getServerPort() > 0 && current.getServerPort() != runningPort) {
+            log.info("serverPort changed to {}, the server keeps listening on {} until it is restarted",
+                    current.getServerPort(), runningPort);
+        }
+    }
+
+    // ==================== Thread Pool ====================
+
+    /**
+     * Choose how Jetty runs request handlers.
+     *
+     * With HTTP_VIRTUAL_THREADS=true every request runs on its own virtual thread, so handlers
+     * that block for a long time (POST /api/register waits up to 30s on the sensor, storage
+     * writes hit the disk) no longer hold one of a small number of platform threads while
+     * cheap calls such as GET /api/status queue behind them.
+     */
+    private void configureThreadPool() {
+        if (EnvLoader.getBoolean("HTTP_VIRTUAL_THREADS", false)) {
+            int maxThreads = EnvLoader.getInt("HTTP_MAX_THREADS", DEFAULT_VIRTUAL_MAX_THREADS);
+            QueuedThreadPool pool = new QueuedThreadPool(
+                maxThreads,
+                8,          // min threads
+                60000,      // idle timeout ms
+                0,          // no reserved threads, a new virtual thread is as cheap as a reserved one
+                new BlockingArrayQueue<>(maxThreads),
+                null,
+                Thread.ofVirtual().name("http-vt-", 0).factory()
+            );
+            pool.setName("http-vt");
+            EmbeddedServers.add(EmbeddedServers.defaultIdentifier(), new EmbeddedJettyFactory().withThreadPool(pool));
+            log.info("HTTP requests run on virtual threads (max {})", maxThreads);
+        } else {
+            int maxThreads = EnvLoader.getInt("HTTP_MAX_THREADS", DEFAULT_PLATFORM_MAX_THREADS);
+            threadPool(maxThreads);
+            log.info("HTTP requests run on platform threads (max {})", maxThreads);
+        }
+    }
+
     // ==================== Helper Methods ====================
 
     private JsonObject registrationToPublicJson(Registration reg) {
@@ -403,7 +1056,27 @@ public class FingerprintServer {
         obj.addProperty("name", reg.getName());
         obj.addProperty("role", reg.getRole());
         obj.addProperty("createdAt", reg.getCreatedAt());
-        // Don't expose templateBase64 in list/get responses
+        if (reg.getGroups() != null && !reg.getGroups().isEmpty()) {
+            obj.add("groups", gson.toJsonTree(reg.getGroups()));
+        }
+        return obj;
+    }
+
+    private int getTopK(JsonObject body) {
+        int topK = body.has("topK") ? body.get("topK").getAsInt() : 1;
+        return Math.max(1, Math.min(topK, EnvLoader.getInt("IDENTIFY_MAX_TOP_K", 10)));
+    }
+
+    private JsonObject candidatesToJson(List<FingerprintService.Candidate> candidates) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("matched", !candidates.isEmpty());
+        JsonArray list = new JsonArray();
+        for (FingerprintService.Candidate candidate : candidates) {
+            JsonObject entry = registrationToPublicJson(candidate.registration);
+            entry.addProperty("score", candidate.score);
+            list.add(entry);
+        }
+        obj.add("candidates", list);
         return obj;
     }
 
@@ -414,6 +1087,99 @@ public class FingerprintServer {
         return null;
     }
 
+    private List<String> getJsonStringList(JsonObject obj, String key) {
+        if (!obj.has(key) || !obj.get(key).isJsonArray()) {
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        for (JsonElement element : obj.getAsJsonArray(key)) {
+            if (!element.isJsonNull() && !element.getAsString().trim().isEmpty()) {
+                values.add(element.getAsString().trim());
+            }
+        }
+        return values.isEmpty() ? null : values;
+    }
+
+    /**
+     * Routes that need the open device or the loaded matcher, answered with 503 until the warm-up is done
+     */
+    static boolean requiresMatcher(String method, String path) {
+        if (method.equals("POST")) {
+            return path.equals("/api/register")
+                || path.equals("/api/fingerprints/import")
+                || path.startsWith("/api/identify")
+                || path.startsWith("/api/identification/")
+                || path.startsWith("/api/verify/")
+                || path.equals("/api/dedup/start")
+                || path.equals("/api/cluster/identify")
+                || path.equals("/api/cluster/registrations");
+        }
+        // Deleting must not race the load, which could re-add the template afterwards
+        return method.equals("DELETE")
+            && (path.startsWith("/api/fingerprints/") || path.startsWith("/api/cluster/registrations/"));
+    }
+
+    /**
+     * In cluster mode, move a registration just added here to the node that owns it
+     */
+    private void handOff(String registrationId) {
+        if (clusterService != null) {
+            clusterService.handOff(registrationId);
+        }
+    }
+
+    /**
+     * In cluster mode, a 409 body if another node already has a registration with this name
+     * (names must be unique cluster-wide, or the owner would refuse the registration when it
+     * is moved there); null otherwise
+     */
+    private String clusterNameConflict(Response res, String name) {
+        if (clusterService == null || name == null) {
+            return null;
+        }
+        JsonObject existing = clusterService.findNameElsewhere(name);
+        if (existing == null) {
+            return null;
+        }
+        res.status(409);
+        JsonObject response = new JsonObject();
+        response.addProperty("error", "Name already exists");
+        response.addProperty("existingUserId", existing.get("id").getAsString());
+        response.addProperty("existingUserName", existing.get("name").getAsString());
+        response.addProperty("node", existing.get("node").getAsString());
+        return gson.toJson(response);
+    }
+
+    /**
+     * Routes that add or delete registrations, refused on a replication follower. Includes the
+     * cluster routes that store, delete or move registrations, which would otherwise let the
+     * follower drift from its leader.
+     */
+    static boolean isRegistrationWrite(String method, String path) {
+        if (method.equals("POST")) {
+            return path.equals("/api/register") || path.equals("/api/fingerprints/import")
+                    || path.equals("/api/cluster/registrations") || path.equals("/api/cluster/drain");
+        }
+        return method.equals("DELETE")
+                && (path.startsWith("/api/fingerprints/") || path.startsWith("/api/cluster/registrations/"));
+    }
+
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    /**
+     * Client a rate limit applies to: the API key name, or the IP address when auth is disabled
+     */
+    private static String admissionClient(Request request) {
+        AuthService.ApiKey key = request.attribute("apiKey");
+        return key != null ? key.name : request.ip();
+    }
+
     private String errorJson(String message) {
         JsonObject error = new JsonObject();
         error.addProperty("error", message);
@@ -1,25 +1,50 @@
 package com.fingerprint.server;
 
+import com.fingerprint.model.IdentificationScope;
 import com.fingerprint.model.Registration;
 import com.zkteco.biometric.FingerprintSensorEx;
 import com.zkteco.biometric.FingerprintSensorErrorCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.DataOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.time.Instant;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 /**
  * FingerprintService - Singleton managing fingerprint sensor and operations
  */
 public class FingerprintService {
+    private static final Logger log = LoggerFactory.getLogger(FingerprintService.class);
+
     private static FingerprintService instance;
 
     // Device and database handles
@@ -31,19 +56,51 @@ public class FingerprintService {
     private int imageHeight = 0;
 
     // Buffers
-    private byte[] imageBuffer = null;
-    private byte[] captureTemplate = new byte[2048];
-    private int[] captureTemplateLen = new int[1];
+    // Preallocated capture buffers: one slot each for scanning and enrollment, the rest carry
+    // images to the archiver
+    private CaptureSlot.Pool slotPool;
+    private CaptureSlot scanSlot;
+    private CaptureSlot enrollSlot; // also used by verification, which excludes enrollment
+
+    // Enrollment candidate templates, reused across enrollments
+    private byte[][] enrollTemplates = new byte[0][];
 
     // Registration buffers (3 captures for enrollment)
-    private static final int REGISTER_CAPTURE_COUNT = 3;
-    private byte[][] registerTemplates = new byte[REGISTER_CAPTURE_COUNT][2048];
-    private int[] registerTemplateLens = new int[REGISTER_CAPTURE_COUNT];
+    private static final int REGISTER_CAPTURE_COUNT = 3; // captures merged into one template
+
+    private static final String DEVICE_LOST_MESSAGE = "Fingerprint device disconnected, reconnecting";
 
     // Control flags
     private AtomicBoolean isInitialized = new AtomicBoolean(false);
-    private AtomicBoolean isIdentificationRunning = new AtomicBoolean(false);
-    private AtomicBoolean isEnrollmentInProgress = new AtomicBoolean(false);
+
+    /**
+     * Progress of the background warm-up (device open + matcher load)
+     */
+    public enum WarmupPhase { PENDING, OPENING_DEVICE, LOADING_TEMPLATES, WAITING_FOR_DEVICE, READY }
+
+    private volatile WarmupPhase warmupPhase = WarmupPhase.PENDING;
+    private volatile String warmupError;
+    private volatile long warmupStartedAt;
+    private volatile long warmupReadyAt;
+    private volatile int templatesTotal;
+    private final AtomicInteger templatesLoaded = new AtomicInteger();
+    private volatile boolean warmupCancelled = false;
+    private Thread warmupThread;
+    // Set when the scope configuration changes before the warm-up has built the partitions
+    private final AtomicBoolean scopesChanged = new AtomicBoolean(false);
+
+    /**
+     * Who owns the sensor. Transitions are compare-and-set, so exactly one caller wins a claim.
+     */
+    public enum DeviceMode { IDLE, IDENTIFYING, ENROLLING, VERIFYING, SHUTTING_DOWN }
+
+    private final AtomicReference<DeviceMode> deviceMode = new AtomicReference<>(DeviceMode.IDLE);
+    // Whether background identification should run when the sensor is not claimed
+    private volatile boolean identificationRequested = false;
+    // Held for each sensor capture and for a whole enrollment, so buffers are never shared mid-capture
+    private final ReentrantLock sensorLock = new ReentrantLock();
+    // Wakes the scan thread when the mode changes
+    private final Object modeSignal = new Object();
 
     // Services
     private StorageService storageService;
@@ -51,9 +108,27 @@ public class FingerprintService {
 
     // Identification callback
     private BiConsumer<Registration, Integer> onFingerprintIdentified;
+    // Searches the other cluster nodes for scans this node's partition did not match (null = not clustered)
+    private volatile BiFunction<byte[], String, IdentifyResult> remoteIdentifier;
 
     // Internal fingerprint ID counter for DBAdd
-    private int nextFingerprintId = 1;
+    private final AtomicInteger nextFingerprintId = new AtomicInteger(1);
+
+    // Watches capture results and reopens the reader when it stops answering
+    private DeviceSupervisor deviceSupervisor;
+
+    // Background writer for enrollment capture images
+    private CaptureArchiver captureArchiver = new CaptureArchiver(CaptureArchiver.Format.NONE, 1);
+
+    // Recently identified templates, probed 1:1 before a full 1:N identify
+    private volatile RecentMatchCache recentMatchCache = new RecentMatchCache(0, 0, 0);
+
+    // Decoded templates for 1:1 verification
+    private TemplateCache verifyCache = new TemplateCache(0);
+
+    // Workers for API identification (batches and top-K sweeps)
+    private ExecutorService identifyPool;
+    private int identifyWorkers = 1;
 
     private FingerprintService() {
     }
@@ -67,55 +142,159 @@ public class FingerprintService {
 
     // ==================== Initialization ====================
 
+    /**
+     * Open the device and load the matcher on a background thread, so the HTTP server can answer
+     * while templates load. If the device cannot be opened, initialization is retried every
+     * INIT_RETRY_SECONDS until it succeeds; onReady runs once on the warm-up thread.
+     */
+    public void initializeInBackground(StorageService storageService, WebhookService webhookService, Runnable onReady) {
+        // Set up front so registration counts and exports work while the matcher loads
+        this.storageService = storageService;
+        this.webhookService = webhookService;
+        warmupStartedAt = System.currentTimeMillis();
+        long retryMs = Math.max(1, EnvLoader.getInt("INIT_RETRY_SECONDS", 10)) * 1000L;
+
+        synchronized (this) {
+            if (warmupThread != null) {
+                return;
+            }
+            warmupThread = new Thread(() -> {
+                while (!warmupCancelled) {
+                    if (initialize(storageService, webhookService)) {
+                        onReady.run();
+                        return;
+                    }
+                    if (warmupCancelled) {
+                        return;
+                    }
+                    warmupPhase = WarmupPhase.WAITING_FOR_DEVICE;
+                    log.warn("Fingerprint service not ready ({}). Check that the reader is connected, the ZKTeco "
+                            + "drivers are installed and no other application is using the device. Retrying in {}s",
+                            warmupError, retryMs / 1000);
+                    try {
+                        Thread.sleep(retryMs);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "WarmupThread");
+            warmupThread.setDaemon(true);
+            warmupThread.start();
+        }
+    }
+
+    /**
+     * Record why initialization failed; the warm-up thread logs it before retrying
+     */
+    private boolean initFailed(String error) {
+        warmupError = error;
+        return false;
+    }
+
     public synchronized boolean initialize(StorageService storageService, WebhookService webhookService) {
         if (isInitialized.get()) {
-            System.out.println("[FingerprintService] Already initialized");
+            log.info("Already initialized");
             return true;
         }
 
         this.storageService = storageService;
         this.webhookService = webhookService;
 
-        System.out.println("[FingerprintService] Initializing...");
+        log.info("Initializing...");
+        warmupPhase = WarmupPhase.OPENING_DEVICE;
 
         // Step 1: Initialize SDK
         int ret = FingerprintSensorEx.Init();
         if (ret != FingerprintSensorErrorCode.ZKFP_ERR_OK) {
-            System.err.println("[FingerprintService] Failed to initialize SDK, ret=" + ret);
-            return false;
+            return initFailed("Failed to initialize SDK, ret=" + ret);
         }
-        System.out.println("[FingerprintService] SDK initialized");
+        log.info("SDK initialized");
 
         // Step 2: Check device count
         ret = FingerprintSensorEx.GetDeviceCount();
-        System.out.println("[FingerprintService] Device count: " + ret);
+        log.info("Device count: {}", ret);
         if (ret < 1) {
-            System.err.println("[FingerprintService] No fingerprint devices connected!");
             FingerprintSensorEx.Terminate();
-            return false;
+            return initFailed("No fingerprint devices connected");
         }
 
         // Step 3: Open device
         deviceHandle = FingerprintSensorEx.OpenDevice(0);
         if (deviceHandle == 0) {
-            System.err.println("[FingerprintService] Failed to open device");
             FingerprintSensorEx.Terminate();
-            return false;
+            return initFailed("Failed to open device");
         }
-        System.out.println("[FingerprintService] Device opened, handle=" + deviceHandle);
+        log.info("Device opened, handle={}", deviceHandle);
 
         // Step 4: Initialize database
         dbHandle = FingerprintSensorEx.DBInit();
         if (dbHandle == 0) {
-            System.err.println("[FingerprintService] Failed to initialize database");
             FingerprintSensorEx.CloseDevice(deviceHandle);
             deviceHandle = 0;
             FingerprintSensorEx.Terminate();
-            return false;
+            return initFailed("Failed to initialize database");
         }
-        System.out.println("[FingerprintService] Database initialized, handle=" + dbHandle);
+        log.info("Database initialized, handle={}", dbHandle);
 
         // Step 5: Get image parameters
+        readImageSize();
+        log.info("Image size: {}x{}", imageWidth, imageHeight);
+
+        // Step 6: Load existing registrations into DB (and the empty scope partitions they feed)
+        warmupPhase = WarmupPhase.LOADING_TEMPLATES;
+        warmupError = null;
+        scopePartitions = Collections.unmodifiableMap(createScopePartitions());
+        loadRegistrationsIntoDb();
+        logScopeSizes();
+        setIdentificationScope(storageService.getConfig().getIdentificationScope());
+
+        int archiveQueue = Math.max(1, EnvLoader.getInt("CAPTURE_ARCHIVE_QUEUE", 16));
+        captureArchiver = new CaptureArchiver(
+            CaptureArchiver.parseFormat(EnvLoader.get("CAPTURE_ARCHIVE_FORMAT")),
+            archiveQueue
+        );
+
+        // Scan + enroll slots, one per queued archive image and one being written
+        slotPool = new CaptureSlot.Pool(2 + archiveQueue + 1, imageWidth, imageHeight);
+        scanSlot = slotPool.tryAcquire();
+        enrollSlot = slotPool.tryAcquire();
+
+        verifyCache = new TemplateCache(EnvLoader.getInt("VERIFY_CACHE_SIZE", 1024));
+
+        // Step 7: Optional hot cache for repeat identifications (re-applied when .env changes)
+        applyCacheSettings();
+        EnvLoader.addReloadListener(this::applyCacheSettings);
+
+        // Step 8: Worker pool for the identification API
+        identifyWorkers = Math.max(1, EnvLoader.getInt("IDENTIFY_WORKERS", Runtime.getRuntime().availableProcessors()));
+        AtomicInteger workerCount = new AtomicInteger();
+        identifyPool = Executors.newFixedThreadPool(identifyWorkers, r -> {
+            Thread t = new Thread(r, "IdentifyWorker-" + workerCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        matcherLane = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "MatcherLaneThread");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // Step 9: Device watchdog; the scan loop parks while it reconnects and resumes afterwards
+        deviceSupervisor = new DeviceSupervisor(this::reopenDevice, this::signalModeChange);
+
+        isInitialized.set(true);
+        warmupReadyAt = System.currentTimeMillis();
+        warmupPhase = WarmupPhase.READY;
+        if (scopesChanged.getAndSet(false)) {
+            // config.json changed while the matcher was loading
+            reloadScopes();
+            setIdentificationScope(storageService.getConfig().getIdentificationScope());
+        }
+        log.info("Initialization complete");
+        return true;
+    }
+
+    private void readImageSize() {
         byte[] paramValue = new byte[4];
         int[] size = new int[1];
 
@@ -126,44 +305,552 @@ public class FingerprintService {
         size[0] = 4;
         FingerprintSensorEx.GetParameters(deviceHandle, 2, paramValue, size);
         imageHeight = byteArrayToInt(paramValue);
+    }
 
-        imageBuffer = new byte[imageWidth * imageHeight];
-        System.out.println("[FingerprintService] Image size: " + imageWidth + "x" + imageHeight);
-
-        // Step 6: Load existing registrations into DB
-        loadRegistrationsIntoDb();
-
-        isInitialized.set(true);
-        System.out.println("[FingerprintService] Initialization complete");
-        return true;
+    /**
+     * Close and reopen the reader (called by the device watchdog). Only the device handle is
+     * replaced: the SDK is not terminated, so the matcher databases and their templates survive.
+     * @return true once the reader is open again
+     */
+    private boolean reopenDevice() {
+        sensorLock.lock();
+        try {
+            if (deviceHandle != 0) {
+                FingerprintSensorEx.CloseDevice(deviceHandle);
+                deviceHandle = 0;
+            }
+            if (FingerprintSensorEx.GetDeviceCount() < 1) {
+                return false;
+            }
+            long handle = FingerprintSensorEx.OpenDevice(0);
+            if (handle == 0) {
+                return false;
+            }
+            deviceHandle = handle;
+
+            int previousWidth = imageWidth;
+            int previousHeight = imageHeight;
+            readImageSize();
+            if (imageWidth != previousWidth || imageHeight != previousHeight) {
+                // A different reader model was plugged in; size new capture buffers for it.
+                // Slots still queued for archiving go back to the old pool, which is then dropped.
+                log.warn("Image size changed from {}x{} to {}x{}", previousWidth, previousHeight, imageWidth, imageHeight);
+                slotPool = new CaptureSlot.Pool(slotPool.getSize(), imageWidth, imageHeight);
+                scanSlot = slotPool.tryAcquire();
+                enrollSlot = slotPool.tryAcquire();
+            }
+            log.info("Device reopened, handle={}", deviceHandle);
+            return true;
+        } finally {
+            sensorLock.unlock();
+        }
     }
 
+    /**
+     * Load all registrations into the matcher. Templates come from the matcher snapshot where it is
+     * still valid; only registrations added since the snapshot are read from the template store.
+     */
     private void loadRegistrationsIntoDb() {
-        List<Registration> registrations = storageService.getAllRegistrations();
-        System.out.println("[FingerprintService] Loading " + registrations.size() + " registrations into memory DB...");
+        long start = System.currentTimeMillis();
+        RegistrationSnapshot registrations = storageService.getSnapshot();
+        log.info("Loading {} registrations into memory DB...", registrations.size());
+        templatesLoaded.set(0);
+        templatesTotal = registrations.size();
+
+        Map<String, MatcherSnapshot.Entry> snapshotEntries = new HashMap<>();
+        MatcherSnapshot snapshot = MatcherSnapshot.read(getMatcherSnapshotPath());
+        if (snapshot != null) {
+            if (snapshot.getStorageVersion() > registrations.getVersion()) {
+                // Storage was restored from an older backup, the snapshot cannot be trusted
+                log.warn("Matcher snapshot is newer than storage (v{} > v{}), ignoring it",
+                        snapshot.getStorageVersion(), registrations.getVersion());
+            } else {
+                for (MatcherSnapshot.Entry entry : snapshot.getEntries()) {
+                    snapshotEntries.put(entry.registrationId, entry);
+                }
+                nextFingerprintId.accumulateAndGet(snapshot.getNextFid(), Math::max);
+            }
+        }
 
-        for (Registration reg : registrations) {
+        int restored = 0;
+        int replayed = 0;
+        for (Registration reg : registrations.getRegistrations()) {
+            templatesLoaded.incrementAndGet();
             try {
-                byte[] template = base64ToBytes(reg.getTemplateBase64());
+                MatcherSnapshot.Entry entry = snapshotEntries.remove(reg.getId());
+                if (entry != null) {
+                    if (addToMatcherDb(entry.fid, entry.template, reg)) {
+                        restored++;
+                    }
+                    continue;
+                }
+
+                byte[] template = base64ToBytes(storageService.getTemplateBase64(reg.getId()));
                 if (template != null && template.length > 0) {
-                    int fid = nextFingerprintId++;
-                    int ret = FingerprintSensorEx.DBAdd(dbHandle, fid, template);
-                    if (ret == FingerprintSensorErrorCode.ZKFP_ERR_OK) {
-                        // Store mapping between fid and registration id
-                        fidToRegistrationId.put(fid, reg.getId());
-                        System.out.println("[FingerprintService] Loaded: " + reg.getName() + " (fid=" + fid + ")");
-                    } else {
-                        System.err.println("[FingerprintService] Failed to add to DB: " + reg.getName() + ", ret=" + ret);
+                    int fid = nextFingerprintId.getAndIncrement();
+                    if (addToMatcher(fid, template, reg)) {
+                        replayed++;
+                        log.debug("Loaded: {} (fid={})", reg.getName(), fid);
                     }
                 }
             } catch (Exception e) {
-                System.err.println("[FingerprintService] Error loading registration: " + reg.getId() + " - " + e.getMessage());
+                log.error("Error loading registration: {} - {}", reg.getId(), e.getMessage());
+            }
+        }
+
+        // Whatever is left in the snapshot was deleted after it was taken
+        int stale = snapshotEntries.size();
+        log.info("Matcher loaded in {}ms: {} from snapshot, {} replayed, {} stale",
+                System.currentTimeMillis() - start, restored, replayed, stale);
+
+        if (snapshot == null || replayed > 0 || stale > 0) {
+            saveMatcherSnapshot();
+        } else {
+            snapshotDirty.set(false);
+        }
+    }
+
+    /**
+     * Build the recent-match cache from the current .env settings, unless they are unchanged
+     */
+    private void applyCacheSettings() {
+        int size = EnvLoader.getInt("IDENTIFY_CACHE_SIZE", 0);
+        long ttlMs = EnvLoader.getInt("IDENTIFY_CACHE_TTL_SECONDS", 300) * 1000L;
+        int threshold = EnvLoader.getInt("IDENTIFY_CACHE_THRESHOLD", 70);
+        if (recentMatchCache.hasSettings(size, ttlMs, threshold)) {
+            return;
+        }
+        recentMatchCache = new RecentMatchCache(size, ttlMs, threshold);
+        if (recentMatchCache.isEnabled()) {
+            log.info("Recent-match cache enabled, size={}, ttl={}s, threshold={}", size, ttlMs / 1000, threshold);
+        } else {
+            log.info("Recent-match cache disabled");
+        }
+    }
+
+    // ==================== Matcher Snapshot ====================
+
+    // Templates added since the last snapshot was written, keyed by fid
+    private final Map<Integer, byte[]> pendingSnapshotTemplates = new ConcurrentHashMap<>();
+    private final AtomicBoolean snapshotDirty = new AtomicBoolean(false);
+    private final Object snapshotLock = new Object();
+
+    private String getMatcherSnapshotPath() {
+        return storageService.getDataFile("matcher.snapshot");
+    }
+
+    /**
+     * Write the current matcher contents to the snapshot file. Entries of the previous snapshot are
+     * carried over, so only templates added since then need to be held in memory.
+     */
+    private void saveMatcherSnapshot() {
+        synchronized (snapshotLock) {
+            long start = System.currentTimeMillis();
+            snapshotDirty.set(false);
+            long storageVersion = storageService.getVersion();
+            Map<Integer, byte[]> pending = new HashMap<>(pendingSnapshotTemplates);
+
+            List<MatcherSnapshot.Entry> entries = new ArrayList<>(registrationIdToFid.size());
+            Set<Integer> written = new HashSet<>();
+
+            MatcherSnapshot previous = MatcherSnapshot.read(getMatcherSnapshotPath());
+            if (previous != null) {
+                for (MatcherSnapshot.Entry entry : previous.getEntries()) {
+                    Integer fid = registrationIdToFid.get(entry.registrationId);
+                    if (fid != null && fid == entry.fid && written.add(fid)) {
+                        entries.add(entry);
+                    }
+                }
+            }
+            for (Map.Entry<Integer, byte[]> added : pending.entrySet()) {
+                String registrationId = fidToRegistrationId.get(added.getKey());
+                if (registrationId != null && written.add(added.getKey())) {
+                    entries.add(new MatcherSnapshot.Entry(added.getKey(), registrationId, added.getValue()));
+                }
+            }
+            // Anything still missing (e.g. the previous snapshot was discarded) comes from the template store
+            for (Map.Entry<String, Integer> loaded : registrationIdToFid.entrySet()) {
+                if (!written.contains(loaded.getValue())) {
+                    byte[] template = base64ToBytes(storageService.getTemplateBase64(loaded.getKey()));
+                    if (template != null && written.add(loaded.getValue())) {
+                        entries.add(new MatcherSnapshot.Entry(loaded.getValue(), loaded.getKey(), template));
+                    }
+                }
+            }
+
+            try {
+                new MatcherSnapshot(storageVersion, nextFingerprintId.get(), entries).write(getMatcherSnapshotPath());
+                pendingSnapshotTemplates.keySet().removeAll(pending.keySet());
+                log.info("Matcher snapshot saved: {} templates in {}ms", entries.size(), System.currentTimeMillis() - start);
+            } catch (IOException e) {
+                snapshotDirty.set(true);
+                log.error("Failed to save matcher snapshot: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Mapping from internal fingerprint ID to registration ID (and back, for deletes)
+    private Map<Integer, String> fidToRegistrationId = new ConcurrentHashMap<>();
+    private Map<String, Integer> registrationIdToFid = new ConcurrentHashMap<>();
+
+    // ==================== Matcher Maintenance ====================
+
+    /**
+     * Add a new template to the matcher and remember it for the next matcher snapshot
+     */
+    private boolean addToMatcher(int fid, byte[] template, Registration registration) {
+        if (!addToMatcherDb(fid, template, registration)) {
+            return false;
+        }
+        pendingSnapshotTemplates.put(fid, template);
+        snapshotDirty.set(true);
+        return true;
+    }
+
+    /**
+     * Add a template to the main matcher DB and to every scope partition that includes the registration
+     */
+    private boolean addToMatcherDb(int fid, byte[] template, Registration registration) {
+        int ret = FingerprintSensorEx.DBAdd(dbHandle, fid, template);
+        if (ret != FingerprintSensorErrorCode.ZKFP_ERR_OK) {
+            log.error("Failed to add to DB: {}, ret={}", registration.getName(), ret);
+            return false;
+        }
+        fidToRegistrationId.put(fid, registration.getId());
+        registrationIdToFid.put(registration.getId(), fid);
+
+        partitionLock.readLock().lock();
+        try {
+            for (ScopePartition partition : scopePartitions.values()) {
+                partition.add(fid, template, registration);
+            }
+        } finally {
+            partitionLock.readLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Remove a registration from the main matcher DB, its scope partitions and the recent-match cache
+     */
+    private void removeFromMatcher(String registrationId) {
+        recentMatchCache.remove(registrationId);
+        verifyCache.remove(registrationId);
+        Integer fid = registrationIdToFid.remove(registrationId);
+        if (fid == null) {
+            return;
+        }
+        FingerprintSensorEx.DBDel(dbHandle, fid);
+        fidToRegistrationId.remove(fid);
+        pendingSnapshotTemplates.remove(fid);
+        snapshotDirty.set(true);
+
+        partitionLock.readLock().lock();
+        try {
+            for (ScopePartition partition : scopePartitions.values()) {
+                partition.remove(fid);
+            }
+        } finally {
+            partitionLock.readLock().unlock();
+        }
+        log.info("Removed from DB: {} (fid={})", registrationId, fid);
+    }
+
+    /**
+     * Delete a registration from storage and from the matcher
+     */
+    public boolean deleteRegistration(String registrationId) {
+        if (!isInitialized.get()) {
+            return storageService.deleteRegistration(registrationId);
+        }
+        return onMatcherLane(() -> {
+            boolean deleted = storageService.deleteRegistration(registrationId);
+            if (deleted) {
+                removeFromMatcher(registrationId);
             }
+            return deleted;
+        });
+    }
+
+    // ==================== Registration Writes ====================
+
+    // Normalized names of registrations currently being enrolled or imported
+    private final Set<String> reservedNames = ConcurrentHashMap.newKeySet();
+
+    // Single thread applying every matcher add and remove, so DBAdd/DBDel never interleave
+    // on the shared handles. Duplicate searches and decoding stay on the request threads.
+    private ExecutorService matcherLane;
+
+    // Templates added through the lane so far, and the latest of them for duplicate re-checks
+    private final AtomicLong matcherAdds = new AtomicLong();
+    private final ArrayDeque<RecentAdd> recentAdds = new ArrayDeque<>(); // lane thread only
+    private static final int RECENT_ADDS_KEPT = 256;
+
+    private static class RecentAdd {
+        final long seq;
+        final byte[] template;
+        final Registration registration;
+
+        RecentAdd(long seq, byte[] template, Registration registration) {
+            this.seq = seq;
+            this.template = template;
+            this.registration = registration;
         }
     }
 
-    // Mapping from internal fingerprint ID to registration ID
-    private java.util.Map<Integer, String> fidToRegistrationId = new java.util.concurrent.ConcurrentHashMap<>();
+    /**
+     * Reserve a name for an enrollment or import in progress
+     * @return false if the name is registered or reserved by a concurrent request
+     */
+    private boolean reserveName(String name) {
+        String key = RegistrationSnapshot.normalizeName(name);
+        if (!reservedNames.add(key)) {
+            return false;
+        }
+        if (storageService.isNameExists(name)) {
+            reservedNames.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    private void releaseName(String name) {
+        reservedNames.remove(RegistrationSnapshot.normalizeName(name));
+    }
+
+    /**
+     * Run a matcher mutation on the lane and wait for its result
+     */
+    private <T> T onMatcherLane(Callable<T> task) {
+        try {
+            return matcherLane.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Matcher update interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Matcher update failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Last step of enroll and import, run on the matcher lane. The caller's duplicate search
+     * could not see templates added after it read {@code checkedAt}, so the new template is
+     * matched against those first; then the registration is stored and added to the matcher.
+     * @param store Saves the registration, returning null on failure
+     */
+    private EnrollmentResult commitRegistration(long checkedAt, byte[] template, Supplier<Registration> store) {
+        return onMatcherLane(() -> {
+            IdentifyResult duplicate = findAddedSince(checkedAt, template);
+            if (duplicate.matched) {
+                return EnrollmentResult.duplicate("Fingerprint already registered",
+                        duplicate.registration.getId(), duplicate.registration.getName());
+            }
+            Registration registration = store.get();
+            if (registration == null) {
+                return EnrollmentResult.failure("Failed to save registration");
+            }
+            int fid = nextFingerprintId.getAndIncrement();
+            if (addToMatcher(fid, template, registration)) {
+                recentAdds.addLast(new RecentAdd(matcherAdds.incrementAndGet(), template, registration));
+                if (recentAdds.size() > RECENT_ADDS_KEPT) {
+                    recentAdds.removeFirst();
+                }
+                log.debug("Added to DB with fid={}", fid);
+            } else {
+                log.warn("Failed to add to DB: {}", registration.getName());
+            }
+            return EnrollmentResult.success(registration.getId());
+        });
+    }
+
+    /**
+     * Match a template against registrations added through the lane after {@code checkedAt} (lane thread only)
+     */
+    private IdentifyResult findAddedSince(long checkedAt, byte[] template) {
+        if (matcherAdds.get() == checkedAt) {
+            return IdentifyResult.notFound();
+        }
+        RecentAdd oldest = recentAdds.peekFirst();
+        if (oldest == null || oldest.seq > checkedAt + 1) {
+            // More adds since the check than are kept; search the whole matcher again
+            return identify(template, template.length);
+        }
+        int minScore = getThreshold((ScopePartition) null);
+        for (RecentAdd add : recentAdds) {
+            if (add.seq <= checkedAt || !registrationIdToFid.containsKey(add.registration.getId())) {
+                continue;
+            }
+            int score = FingerprintSensorEx.DBMatch(dbHandle, template, add.template);
+            if (score >= minScore) {
+                return IdentifyResult.found(add.registration, score);
+            }
+        }
+        return IdentifyResult.notFound();
+    }
+
+    // ==================== Identification Scopes ====================
+
+    /**
+     * Separate matcher DB holding only the registrations of one identification scope
+     */
+    private static class ScopePartition {
+        final IdentificationScope scope;
+        final long dbHandle;
+        final Set<Integer> fids = ConcurrentHashMap.newKeySet();
+
+        ScopePartition(IdentificationScope scope, long dbHandle) {
+            this.scope = scope;
+            this.dbHandle = dbHandle;
+        }
+
+        void add(int fid, byte[] template, Registration registration) {
+            if (!scope.includes(registration)) {
+                return;
+            }
+            int ret = FingerprintSensorEx.DBAdd(dbHandle, fid, template);
+            if (ret == FingerprintSensorErrorCode.ZKFP_ERR_OK) {
+                fids.add(fid);
+            } else {
+                log.error("Failed to add to scope '{}': {}, ret={}", scope.getName(), registration.getName(), ret);
+            }
+        }
+
+        void remove(int fid) {
+            if (fids.remove(fid)) {
+                FingerprintSensorEx.DBDel(dbHandle, fid);
+            }
+        }
+    }
+
+    // Guards the lifecycle of partition DB handles (rebuilds free the old handles)
+    private final ReentrantReadWriteLock partitionLock = new ReentrantReadWriteLock();
+    private volatile Map<String, ScopePartition> scopePartitions = Collections.emptyMap();
+
+    // Scope used by the background identification loop (null = all registrations)
+    private volatile String identificationScope;
+
+    /**
+     * Create one empty matcher partition per configured scope
+     */
+    private Map<String, ScopePartition> createScopePartitions() {
+        Map<String, ScopePartition> partitions = new LinkedHashMap<>();
+        for (IdentificationScope scope : storageService.getConfig().getIdentificationScopes()) {
+            if (scope.getName() == null || scope.getName().isEmpty() || partitions.containsKey(scope.getName())) {
+                log.warn("Skipping scope with missing or duplicate name: {}", scope);
+                continue;
+            }
+            long handle = FingerprintSensorEx.DBInit();
+            if (handle == 0) {
+                log.error("Failed to initialize DB for scope: {}", scope.getName());
+                continue;
+            }
+            partitions.put(scope.getName(), new ScopePartition(scope, handle));
+        }
+        return partitions;
+    }
+
+    /**
+     * Rebuild the scope partitions from the current registrations and swap them in. Runs on the
+     * matcher lane, so no add or delete can commit between reading the registrations and the
+     * swap (it would reach only the old partitions, which are freed here).
+     */
+    private void buildScopePartitions() {
+        Map<String, ScopePartition> partitions = createScopePartitions();
+        if (!partitions.isEmpty()) {
+            for (Registration reg : storageService.getAllRegistrations()) {
+                Integer fid = registrationIdToFid.get(reg.getId());
+                if (fid == null) continue;
+                byte[] template = base64ToBytes(storageService.getTemplateBase64(reg.getId()));
+                if (template == null) continue;
+                for (ScopePartition partition : partitions.values()) {
+                    partition.add(fid, template, reg);
+                }
+            }
+        }
+
+        Map<String, ScopePartition> old;
+        partitionLock.writeLock().lock();
+        try {
+            old = scopePartitions;
+            scopePartitions = Collections.unmodifiableMap(partitions);
+            for (ScopePartition partition : old.values()) {
+                FingerprintSensorEx.DBFree(partition.dbHandle);
+            }
+        } finally {
+            partitionLock.writeLock().unlock();
+        }
+        logScopeSizes();
+    }
+
+    private void logScopeSizes() {
+        for (ScopePartition partition : scopePartitions.values()) {
+            log.info("Scope '{}' loaded with {} registrations", partition.scope.getName(), partition.fids.size());
+        }
+    }
+
+    /**
+     * Rebuild scope partitions after the scope configuration changed
+     */
+    public void reloadScopes() {
+        // Flag first, so a warm-up finishing concurrently either sees the flag or is seen here
+        scopesChanged.set(true);
+        if (!isInitialized.get()) {
+            return;
+        }
+        synchronized (this) {
+            scopesChanged.set(false);
+            onMatcherLane(() -> {
+                buildScopePartitions();
+                return null;
+            });
+            if (identificationScope != null && !scopePartitions.containsKey(identificationScope)) {
+                log.warn("Identification scope '{}' no longer exists, using all registrations", identificationScope);
+                identificationScope = null;
+            }
+        }
+    }
+
+    public boolean hasScope(String scopeName) {
+        return scopePartitions.containsKey(scopeName);
+    }
+
+    /**
+     * Assign the scope searched by the background identification loop (null = all registrations)
+     */
+    public void setIdentificationScope(String scopeName) {
+        if (scopeName != null && !scopePartitions.containsKey(scopeName)) {
+            log.warn("Unknown identification scope '{}', using all registrations", scopeName);
+            scopeName = null;
+        }
+        identificationScope = scopeName;
+        log.info("Identification scope: {}", scopeName != null ? scopeName : "(all)");
+    }
+
+    public String getIdentificationScope() {
+        return identificationScope;
+    }
+
+    public static class ScopeInfo {
+        public String name;
+        public List<String> roles;
+        public List<String> groups;
+        public int threshold;
+        public int members;
+    }
+
+    public List<ScopeInfo> getScopes() {
+        List<ScopeInfo> result = new ArrayList<>();
+        for (ScopePartition partition : scopePartitions.values()) {
+            ScopeInfo info = new ScopeInfo();
+            info.name = partition.scope.getName();
+            info.roles = partition.scope.getRoles();
+            info.groups = partition.scope.getGroups();
+            info.threshold = getThreshold(partition);
+            info.members = partition.fids.size();
+            result.add(info);
+        }
+        return result;
+    }
 
     // ==================== Enrollment (Registration) ====================
 
@@ -173,6 +860,7 @@ public class FingerprintService {
         public String registrationId;
         public String existingUserId;
         public String existingUserName;
+        public EnrollmentQuality quality;
 
         public static EnrollmentResult success(String registrationId) {
             EnrollmentResult r = new EnrollmentResult();
@@ -182,6 +870,12 @@ public class FingerprintService {
             return r;
         }
 
+        public static EnrollmentResult success(String registrationId, EnrollmentQuality quality) {
+            EnrollmentResult r = success(registrationId);
+            r.quality = quality;
+            return r;
+        }
+
         public static EnrollmentResult failure(String message) {
             EnrollmentResult r = new EnrollmentResult();
             r.success = false;
@@ -200,197 +894,779 @@ public class FingerprintService {
     }
 
     /**
-     * Synchronous enrollment - blocks until 3 fingerprints captured or timeout
-     * @param name User's name
-     * @param role User's role (Admin/User)
-     * @param timeoutSeconds Timeout in seconds for entire enrollment
-     * @return EnrollmentResult with success status and registration ID or error details
+     * Capture quality of an enrollment: every capture's score and which ones were merged
+     */
+    public static class EnrollmentQuality {
+        public int score;                     // average of the merged captures
+        public List<Integer> captureScores;   // all accepted captures, in order
+        public List<Integer> mergedCaptures;  // 1-based capture numbers used for the template
+    }
+
+    /**
+     * Synchronous enrollment - blocks until enough good captures are collected or timeout.
+     * Up to ENROLL_MAX_CAPTURES captures of the same finger are scored with {@link CaptureQuality}
+     * and the best 3 are merged. Capturing stops early once 3 captures reach ENROLL_GOOD_QUALITY.
+     * @param name User's name
+     * @param role User's role (Admin/User)
+     * @param groups Optional group tags used by identification scopes
+     * @param timeoutSeconds Timeout in seconds for entire enrollment
+     * @return EnrollmentResult with success status and registration ID or error details
+     */
+    public EnrollmentResult enroll(String name, String role, List<String> groups, int timeoutSeconds) {
+        if (!isInitialized.get()) {
+            return EnrollmentResult.failure("Fingerprint service not initialized");
+        }
+        if (!deviceSupervisor.isConnected()) {
+            return EnrollmentResult.failure(DEVICE_LOST_MESSAGE);
+        }
+        if (!reserveName(name)) {
+            return EnrollmentResult.failure("Name already exists");
+        }
+
+        // Claim the sensor; the scan loop parks after its current capture
+        if (claimSensor(DeviceMode.ENROLLING) == null) {
+            releaseName(name);
+            return EnrollmentResult.failure(sensorBusyMessage());
+        }
+        sensorLock.lock();
+        try {
+            log.info("Starting enrollment for: {}", name);
+
+            // Pre-generate registration ID for saving BMPs
+            String registrationId = storageService.generateNewId();
+
+            int maxCaptures = Math.max(REGISTER_CAPTURE_COUNT, EnvLoader.getInt("ENROLL_MAX_CAPTURES", 5));
+            int minQuality = EnvLoader.getInt("ENROLL_MIN_QUALITY", 0);
+            int goodQuality = EnvLoader.getInt("ENROLL_GOOD_QUALITY", 60);
+            if (enrollTemplates.length < maxCaptures) {
+                enrollTemplates = new byte[maxCaptures][CaptureSlot.TEMPLATE_SIZE];
+            }
+            byte[][] captures = enrollTemplates;
+            int[] qualities = new int[maxCaptures];
+            CaptureSlot slot = enrollSlot;
+            int captureCount = 0;
+            int bestIndex = 0;
+            long checkedAt = 0;
+            long startTime = System.currentTimeMillis();
+            long timeoutMs = timeoutSeconds * 1000L;
+
+            // Collect candidate captures until there are enough good ones
+            while (captureCount < maxCaptures) {
+                // Check timeout (enough captures to merge is still a success)
+                if (System.currentTimeMillis() - startTime > timeoutMs) {
+                    if (captureCount >= REGISTER_CAPTURE_COUNT) {
+                        break;
+                    }
+                    return EnrollmentResult.failure("Enrollment timed out. Captured " + captureCount + "/" + REGISTER_CAPTURE_COUNT);
+                }
+
+                // Capture fingerprint
+                slot.prepareCapture();
+                FlightEvents.ScanCaptured captured = beginCapture();
+                int ret = FingerprintSensorEx.AcquireFingerprint(deviceHandle, slot.image, slot.template, slot.templateLen);
+                commitCapture(captured, ret, "enroll", slot);
+                deviceSupervisor.record(ret);
+                if (!deviceSupervisor.isConnected()) {
+                    return EnrollmentResult.failure(DEVICE_LOST_MESSAGE);
+                }
+
+                if (ret == FingerprintSensorErrorCode.ZKFP_ERR_OK) {
+                    FlightEvents.EnrollmentStep step = beginStep();
+                    CaptureQuality quality = CaptureQuality.of(slot.image, slot.width, slot.height);
+                    commitStep(step, registrationId, "capture", captureCount, quality.score, ret);
+                    log.info("Capture {}/{}, quality={}", captureCount + 1, maxCaptures, quality.score);
+                    if (quality.score < minQuality) {
+                        log.info("Capture quality too low, please place the finger flat and still");
+                        try { Thread.sleep(500); } catch (InterruptedException e) {}
+                        continue;
+                    }
+
+                    // First capture - check for duplicates against existing registrations
+                    if (captureCount == 0) {
+                        checkedAt = matcherAdds.get();
+                        step = beginStep();
+                        IdentifyResult dupCheck = identify(slot.template, slot.templateLen[0]);
+                        commitStep(step, registrationId, "duplicateCheck", captureCount, quality.score, dupCheck.score);
+                        if (dupCheck.matched) {
+                            return EnrollmentResult.duplicate(
+                                "Fingerprint already registered",
+                                dupCheck.registration.getId(),
+                                dupCheck.registration.getName()
+                            );
+                        }
+                    }
+
+                    // Verify same finger as the best capture so far
+                    if (captureCount > 0) {
+                        step = beginStep();
+                        int matchScore = FingerprintSensorEx.DBMatch(dbHandle, slot.template, captures[bestIndex]);
+                        commitStep(step, registrationId, "sameFinger", captureCount, quality.score, matchScore);
+                        if (matchScore <= 0) {
+                            log.info("Different finger detected, please use the same finger");
+                            continue; // Don't increment, try again
+                        }
+                    }
+
+                    // Archive this capture image off the enrollment path
+                    archiveCapture(registrationId, captureCount + 1);
+
+                    // Store this capture
+                    System.arraycopy(slot.template, 0, captures[captureCount], 0, slot.templateLen[0]);
+                    qualities[captureCount] = quality.score;
+                    if (quality.score > qualities[bestIndex]) {
+                        bestIndex = captureCount;
+                    }
+                    captureCount++;
+
+                    log.info("Capture {} stored", captureCount);
+
+                    // Stop early once the best 3 are all good enough
+                    int[] best = bestCaptures(qualities, captureCount);
+                    if (best.length == REGISTER_CAPTURE_COUNT && qualities[best[REGISTER_CAPTURE_COUNT - 1]] >= goodQuality) {
+                        break;
+                    }
+
+                    // Wait a bit before next capture
+                    try { Thread.sleep(500); } catch (InterruptedException e) {}
+                }
+
+                // Small delay between capture attempts
+                try { Thread.sleep(100); } catch (InterruptedException e) {}
+            }
+
+            // Merge the 3 best captures into one registration template
+            int[] best = bestCaptures(qualities, captureCount);
+            EnrollmentQuality enrollmentQuality = new EnrollmentQuality();
+            enrollmentQuality.captureScores = new ArrayList<>();
+            enrollmentQuality.mergedCaptures = new ArrayList<>();
+            for (int i = 0; i < captureCount; i++) {
+                enrollmentQuality.captureScores.add(qualities[i]);
+            }
+            int qualitySum = 0;
+            for (int index : best) {
+                enrollmentQuality.mergedCaptures.add(index + 1);
+                qualitySum += qualities[index];
+            }
+            enrollmentQuality.score = qualitySum / best.length;
+
+            byte[] mergedTemplate = new byte[2048];
+            int[] mergedLen = new int[1];
+            mergedLen[0] = 2048;
+
+            FlightEvents.EnrollmentStep step = beginStep();
+            int ret = FingerprintSensorEx.DBMerge(dbHandle,
+                captures[best[0]], captures[best[1]], captures[best[2]],
+                mergedTemplate, mergedLen);
+            commitStep(step, registrationId, "merge", captureCount, enrollmentQuality.score, ret);
+
+            if (ret != FingerprintSensorErrorCode.ZKFP_ERR_OK) {
+                return EnrollmentResult.failure("Failed to merge fingerprint templates, ret=" + ret);
+            }
+
+            log.info("Templates merged, size={}, captures {} of {}, quality={}",
+                    mergedLen[0], enrollmentQuality.mergedCaptures, captureCount, enrollmentQuality.score);
+
+            // Convert to Base64 for storage
+            String templateBase64 = FingerprintSensorEx.BlobToBase64(mergedTemplate, mergedLen[0]);
+
+            // Save to storage with pre-generated ID and add to the in-memory DB and scope partitions
+            byte[] template = Arrays.copyOf(mergedTemplate, mergedLen[0]);
+            step = beginStep();
+            EnrollmentResult result = commitRegistration(checkedAt, template, () ->
+                    storageService.addRegistrationWithPregeneratedId(registrationId, name, role, groups, templateBase64) != null
+                            ? storageService.getRegistrationById(registrationId).orElse(null) : null);
+            commitStep(step, registrationId, "commit", captureCount, enrollmentQuality.score, result.success ? 0 : -1);
+            if (!result.success) {
+                return result;
+            }
+
+            log.info("Enrollment complete: {}", registrationId);
+            return EnrollmentResult.success(registrationId, enrollmentQuality);
+
+        } finally {
+            releaseName(name);
+            sensorLock.unlock();
+            releaseSensor(DeviceMode.ENROLLING);
+        }
+    }
+
+    private static FlightEvents.EnrollmentStep beginStep() {
+        FlightEvents.EnrollmentStep event = new FlightEvents.EnrollmentStep();
+        event.begin();
+        return event;
+    }
+
+    private static void commitStep(FlightEvents.EnrollmentStep event, String registrationId, String step,
+                                   int capture, int quality, int result) {
+        if (event.shouldCommit()) {
+            event.registrationId = registrationId;
+            event.step = step;
+            event.capture = capture;
+            event.quality = quality;
+            event.result = result;
+            event.commit();
+        }
+    }
+
+    /**
+     * Indexes of the (up to) 3 highest-quality captures, best first; earlier captures win ties
+     */
+    private static int[] bestCaptures(int[] qualities, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Integer.compare(qualities[b], qualities[a]));
+        int[] best = new int[Math.min(REGISTER_CAPTURE_COUNT, count)];
+        for (int i = 0; i < best.length; i++) best[i] = order[i];
+        return best;
+    }
+
+    // ==================== Verification (1:1) ====================
+
+    public static class VerificationResult {
+        public boolean success;     // a finger was captured and matched
+        public String message;
+        public boolean timedOut;
+        public boolean matched;     // score reached the threshold
+        public int score;
+        public int threshold;
+        public long matchMicros;    // template lookup + DBMatch, independent of population size
+
+        public static VerificationResult failure(String message) {
+            VerificationResult r = new VerificationResult();
+            r.message = message;
+            return r;
+        }
+
+        public static VerificationResult timeout() {
+            VerificationResult r = failure("Verification timed out, no finger captured");
+            r.timedOut = true;
+            return r;
+        }
+    }
+
+    /**
+     * Synchronous 1:1 verification - capture one finger and DBMatch it against the claimed
+     * registration's template only. The template comes from a decoded-template cache
+     * (VERIFY_CACHE_SIZE), so no 1:N search or file read is needed once it is warm.
+     * @param registration The claimed identity
+     * @param timeoutSeconds How long to wait for a finger
+     */
+    public VerificationResult verify(Registration registration, int timeoutSeconds) {
+        if (!isInitialized.get()) {
+            return VerificationResult.failure("Fingerprint service not initialized");
+        }
+        if (!deviceSupervisor.isConnected()) {
+            return VerificationResult.failure(DEVICE_LOST_MESSAGE);
+        }
+        if (claimSensor(DeviceMode.VERIFYING) == null) {
+            return VerificationResult.failure(sensorBusyMessage());
+        }
+        sensorLock.lock();
+        try {
+            CaptureSlot slot = enrollSlot;
+            long deadline = System.currentTimeMillis() + timeoutSeconds * 1000L;
+            while (true) {
+                if (System.currentTimeMillis() > deadline) {
+                    return VerificationResult.timeout();
+                }
+                slot.prepareCapture();
+                FlightEvents.ScanCaptured captured = beginCapture();
+                int ret = FingerprintSensorEx.AcquireFingerprint(deviceHandle, slot.image, slot.template, slot.templateLen);
+                commitCapture(captured, ret, "verify", slot);
+                deviceSupervisor.record(ret);
+                if (ret == FingerprintSensorErrorCode.ZKFP_ERR_OK) {
+                    break;
+                }
+                if (!deviceSupervisor.isConnected()) {
+                    return VerificationResult.failure(DEVICE_LOST_MESSAGE);
+                }
+                try { Thread.sleep(100); } catch (InterruptedException e) {
+                    return VerificationResult.failure("Verification interrupted");
+                }
+            }
+
+            long start = System.nanoTime();
+            byte[] stored = verifyCache.get(registration.getId(),
+                    id -> decodeTemplate(storageService.getTemplateBase64(id)));
+            if (stored == null) {
+                return VerificationResult.failure("No template stored for this registration");
+            }
+            VerificationResult result = new VerificationResult();
+            result.success = true;
+            result.score = FingerprintSensorEx.DBMatch(dbHandle, slot.template, stored);
+            result.matchMicros = (System.nanoTime() - start) / 1000;
+            result.threshold = getVerifyThreshold();
+            result.matched = result.score >= result.threshold;
+            result.message = result.matched ? "Identity verified" : "Fingerprint does not match";
+
+            log.info("Verification for {}: score={}, matched={}", registration.getName(), result.score, result.matched);
+            LogService.logVerified(registration.getName(), result.matched, result.score);
+            return result;
+        } finally {
+            sensorLock.unlock();
+            releaseSensor(DeviceMode.VERIFYING);
+        }
+    }
+
+    /**
+     * Minimum 1:1 score for a verification to succeed (VERIFY_THRESHOLD, default 70)
+     */
+    public int getVerifyThreshold() {
+        return EnvLoader.getInt("VERIFY_THRESHOLD", DEFAULT_MATCH_THRESHOLD);
+    }
+
+    public TemplateCache.Stats getVerifyCacheStats() {
+        return verifyCache.getStats();
+    }
+
+    // ==================== Identification ====================
+
+    public static class IdentifyResult {
+        public boolean matched;
+        public Registration registration;
+        public int score;
+
+        // Shared by every miss so unmatched scans allocate nothing; treat as read-only
+        private static final IdentifyResult NOT_FOUND = new IdentifyResult();
+
+        public static IdentifyResult notFound() {
+            return NOT_FOUND;
+        }
+
+        public static IdentifyResult found(Registration registration, int score) {
+            IdentifyResult r = new IdentifyResult();
+            r.matched = true;
+            r.registration = registration;
+            r.score = score;
+            return r;
+        }
+    }
+
+    /**
+     * Identify a fingerprint template against the whole database
+     */
+    public IdentifyResult identify(byte[] template, int templateLen) {
+        return identify(template, templateLen, null);
+    }
+
+    /**
+     * Identify a fingerprint template against one identification scope (null = whole database).
+     * Recently identified templates are tried 1:1 first when the cache is enabled.
+     */
+    public IdentifyResult identify(byte[] template, int templateLen, String scopeName) {
+        return identify(template, scopeName, new int[1], new int[1]);
+    }
+
+    /**
+     * Identify using caller-provided DBIdentify out-parameters (a capture slot's on the scan path)
+     */
+    private IdentifyResult identify(byte[] template, String scopeName, int[] fid, int[] score) {
+        if (!isInitialized.get() || dbHandle == 0) {
+            return IdentifyResult.notFound();
+        }
+
+        partitionLock.readLock().lock();
+        try {
+            ScopePartition partition = null;
+            if (scopeName != null) {
+                partition = scopePartitions.get(scopeName);
+                if (partition == null) {
+                    return IdentifyResult.notFound();
+                }
+            }
+            return identify(template, partition, fid, score);
+        } finally {
+            partitionLock.readLock().unlock();
+        }
+    }
+
+    private IdentifyResult identify(byte[] template, ScopePartition partition, int[] fid, int[] score) {
+        FlightEvents.IdentifyCompleted event = null;
+        if (FlightEvents.IDENTIFY_COMPLETED.isEnabled()) {
+            event = new FlightEvents.IdentifyCompleted();
+            event.begin();
+        }
+        RecentMatchCache cache = recentMatchCache;
+        long probeNanos = 0;
+        if (cache.isEnabled()) {
+            long probeStart = System.nanoTime();
+            IdentifyResult cached = identifyFromCache(cache, template, partition);
+            probeNanos = System.nanoTime() - probeStart;
+            if (cached.matched) {
+                cache.recordHit(probeNanos);
+                commitIdentify(event, partition, cached, true);
+                return cached;
+            }
+        }
+
+        long identifyStart = System.nanoTime();
+        IdentifyResult result = identifyFullDb(template, partition != null ? partition.dbHandle : dbHandle, fid, score);
+        long identifyNanos = System.nanoTime() - identifyStart;
+
+        if (cache.isEnabled()) {
+            cache.recordMiss(probeNanos, identifyNanos);
+            if (result.matched) {
+                cache.put(result.registration.getId(),
+                        base64ToBytes(storageService.getTemplateBase64(result.registration.getId())));
+            }
+        } else {
+            cache.recordFullIdentify(identifyNanos);
+        }
+
+        commitIdentify(event, partition, result, false);
+        return result;
+    }
+
+    private static void commitIdentify(FlightEvents.IdentifyCompleted event, ScopePartition partition,
+                                       IdentifyResult result, boolean cacheHit) {
+        if (event != null && event.shouldCommit()) {
+            event.scope = partition != null ? partition.scope.getName() : null;
+            event.matched = result.matched;
+            event.score = result.score;
+            event.cacheHit = cacheHit;
+            event.commit();
+        }
+    }
+
+    /**
+     * 1:1 match against the recent-match cache, keeping the best score above the threshold
+     */
+    private IdentifyResult identifyFromCache(RecentMatchCache cache, byte[] template, ScopePartition partition) {
+        String bestId = null;
+        int bestScore = 0;
+        for (RecentMatchCache.Entry entry : cache.candidates()) {
+            if (partition != null) {
+                Integer fid = registrationIdToFid.get(entry.registrationId);
+                if (fid == null || !partition.fids.contains(fid)) {
+                    continue;
+                }
+            }
+            int score = FingerprintSensorEx.DBMatch(dbHandle, template, entry.template);
+            if (score >= cache.getThreshold() && score > bestScore) {
+                bestScore = score;
+                bestId = entry.registrationId;
+            }
+        }
+
+        if (bestId != null) {
+            Optional<Registration> reg = storageService.getRegistrationById(bestId);
+            if (reg.isPresent()) {
+                cache.touch(bestId);
+                return IdentifyResult.found(reg.get(), bestScore);
+            }
+            // Registration was deleted since it was cached
+            cache.remove(bestId);
+        }
+        return IdentifyResult.notFound();
+    }
+
+    private IdentifyResult identifyFullDb(byte[] template, long handle, int[] fid, int[] score) {
+        int ret = FingerprintSensorEx.DBIdentify(handle, template, fid, score);
+
+        if (ret == FingerprintSensorErrorCode.ZKFP_ERR_OK) {
+            String registrationId = fidToRegistrationId.get(fid[0]);
+            if (registrationId != null) {
+                Optional<Registration> reg = storageService.getRegistrationById(registrationId);
+                if (reg.isPresent()) {
+                    return IdentifyResult.found(reg.get(), score[0]);
+                }
+            }
+        }
+
+        return IdentifyResult.notFound();
+    }
+
+    /**
+     * Check if a template matches any existing registration (for import duplicate check)
+     */
+    public IdentifyResult checkDuplicate(String templateBase64) {
+        byte[] template = base64ToBytes(templateBase64);
+        if (template == null || template.length == 0) {
+            return IdentifyResult.notFound();
+        }
+        return identify(template, template.length);
+    }
+
+    // ==================== Candidate Identification ====================
+
+    // Minimum match score when neither the scope nor IDENTIFY_THRESHOLD sets one
+    private static final int DEFAULT_MATCH_THRESHOLD = 70;
+
+    /**
+     * One ranked identification candidate
+     */
+    public static class Candidate {
+        public Registration registration;
+        public int score;
+
+        Candidate(Registration registration, int score) {
+            this.registration = registration;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Acceptance threshold for a scope: its own threshold, else IDENTIFY_THRESHOLD, else
+     * DEFAULT_MATCH_THRESHOLD. Reader scans and identifies with any topK accept the same scores.
      */
-    public EnrollmentResult enroll(String name, String role, int timeoutSeconds) {
-        if (!isInitialized.get()) {
-            return EnrollmentResult.failure("Fingerprint service not initialized");
+    private int getThreshold(ScopePartition partition) {
+        if (partition != null && partition.scope.getThreshold() != null && partition.scope.getThreshold() > 0) {
+            return partition.scope.getThreshold();
         }
+        int threshold = EnvLoader.getInt("IDENTIFY_THRESHOLD", DEFAULT_MATCH_THRESHOLD);
+        return threshold > 0 ? threshold : DEFAULT_MATCH_THRESHOLD;
+    }
 
-        if (isEnrollmentInProgress.get()) {
-            return EnrollmentResult.failure("Another enrollment is already in progress");
-        }
+    public int getThreshold(String scopeName) {
+        return getThreshold(scopeName != null ? scopePartitions.get(scopeName) : null);
+    }
 
-        // Pause identification while enrolling
-        boolean wasIdentificationRunning = isIdentificationRunning.get();
-        if (wasIdentificationRunning) {
-            stopIdentification();
-            try { Thread.sleep(500); } catch (InterruptedException e) {}
+    /**
+     * Identify with the scope's acceptance threshold applied (used for reader scans)
+     */
+    private IdentifyResult identifyAccepted(CaptureSlot slot, String scopeName) {
+        IdentifyResult result = identify(slot.template, scopeName, slot.fid, slot.score);
+        if (result.matched && result.score < getThreshold(scopeName)) {
+            return IdentifyResult.notFound();
         }
+        return result;
+    }
 
-        isEnrollmentInProgress.set(true);
-        System.out.println("[FingerprintService] Starting enrollment for: " + name);
-
-        // Pre-generate registration ID for saving BMPs
-        String registrationId = storageService.generateNewId();
+    /**
+     * Identify a batch of templates against a scope (null = whole database), returning up to
+     * {@code topK} candidates per template that meet the scope's threshold, best first.
+     *
+     * With topK = 1 each template is a DBIdentify call, spread over the worker pool. For larger
+     * topK, DBIdentify only reports the best hit, so the scope is swept with 1:1 DBMatch instead:
+     * the gallery is split across the workers and each stored template is loaded once and
+     * matched against every template in the batch.
+     *
+     * @return one candidate list per input template (empty when nothing matched or the template is null)
+     */
+    public List<List<Candidate>> identifyCandidates(List<byte[]> templates, String scopeName, int topK) {
+        List<List<Candidate>> results = new ArrayList<>(templates.size());
+        if (!isInitialized.get() || dbHandle == 0) {
+            for (int i = 0; i < templates.size(); i++) results.add(new ArrayList<>());
+            return results;
+        }
 
+        partitionLock.readLock().lock();
         try {
-            int captureCount = 0;
-            long startTime = System.currentTimeMillis();
-            long timeoutMs = timeoutSeconds * 1000L;
-
-            // Clear previous templates
-            for (int i = 0; i < REGISTER_CAPTURE_COUNT; i++) {
-                registerTemplates[i] = new byte[2048];
-                registerTemplateLens[i] = 0;
-            }
-
-            // Capture 3 fingerprints
-            while (captureCount < REGISTER_CAPTURE_COUNT) {
-                // Check timeout
-                if (System.currentTimeMillis() - startTime > timeoutMs) {
-                    return EnrollmentResult.failure("Enrollment timed out. Captured " + captureCount + "/" + REGISTER_CAPTURE_COUNT);
+            ScopePartition partition = null;
+            if (scopeName != null) {
+                partition = scopePartitions.get(scopeName);
+                if (partition == null) {
+                    throw new IllegalArgumentException("Unknown identification scope: " + scopeName);
                 }
+            }
+            int threshold = getThreshold(partition);
+            if (topK <= 1) {
+                return identifyBestEach(templates, partition, threshold);
+            }
+            return sweepTopK(templates, partition, topK, threshold);
+        } finally {
+            partitionLock.readLock().unlock();
+        }
+    }
 
-                // Capture fingerprint
-                captureTemplateLen[0] = 2048;
-                int ret = FingerprintSensorEx.AcquireFingerprint(deviceHandle, imageBuffer, captureTemplate, captureTemplateLen);
-
-                if (ret == FingerprintSensorErrorCode.ZKFP_ERR_OK) {
-                    System.out.println("[FingerprintService] Capture " + (captureCount + 1) + "/" + REGISTER_CAPTURE_COUNT);
+    private List<List<Candidate>> identifyBestEach(List<byte[]> templates, ScopePartition partition, int threshold) {
+        List<Future<IdentifyResult>> futures = new ArrayList<>(templates.size());
+        for (byte[] template : templates) {
+            futures.add(template == null ? null
+                    : identifyPool.submit(() -> identify(template, partition, new int[1], new int[1])));
+        }
 
-                    // First capture - check for duplicates against existing registrations
-                    if (captureCount == 0) {
-                        IdentifyResult dupCheck = identify(captureTemplate, captureTemplateLen[0]);
-                        if (dupCheck.matched) {
-                            return EnrollmentResult.duplicate(
-                                "Fingerprint already registered",
-                                dupCheck.registration.getId(),
-                                dupCheck.registration.getName()
-                            );
-                        }
-                    }
+        List<List<Candidate>> results = new ArrayList<>(templates.size());
+        for (Future<IdentifyResult> future : futures) {
+            List<Candidate> candidates = new ArrayList<>(1);
+            if (future != null) {
+                IdentifyResult result = await(future);
+                if (result.matched && result.score >= threshold) {
+                    candidates.add(new Candidate(result.registration, result.score));
+                }
+            }
+            results.add(candidates);
+        }
+        return results;
+    }
 
-                    // Verify same finger as previous capture
-                    if (captureCount > 0) {
-                        int matchScore = FingerprintSensorEx.DBMatch(dbHandle, captureTemplate, registerTemplates[captureCount - 1]);
-                        if (matchScore <= 0) {
-                            System.out.println("[FingerprintService] Different finger detected, please use the same finger");
-                            continue; // Don't increment, try again
-                        }
-                    }
+    private List<List<Candidate>> sweepTopK(List<byte[]> templates, ScopePartition partition, int topK, int minScore) {
+        List<Integer> gallery = new ArrayList<>(partition != null ? partition.fids : fidToRegistrationId.keySet());
+        int chunkSize = Math.max(64, (gallery.size() + identifyWorkers - 1) / identifyWorkers);
 
-                    // Save BMP for this capture
-                    saveCapturedBmp(registrationId, captureCount + 1, imageBuffer.clone());
+        List<Future<List<PriorityQueue<int[]>>>> futures = new ArrayList<>();
+        for (int from = 0; from < gallery.size(); from += chunkSize) {
+            List<Integer> chunk = gallery.subList(from, Math.min(gallery.size(), from + chunkSize));
+            futures.add(identifyPool.submit(() -> sweepChunk(chunk, templates, topK, minScore)));
+        }
 
-                    // Store this capture
-                    System.arraycopy(captureTemplate, 0, registerTemplates[captureCount], 0, captureTemplateLen[0]);
-                    registerTemplateLens[captureCount] = captureTemplateLen[0];
-                    captureCount++;
+        // Merge the per-chunk heaps for each template
+        List<PriorityQueue<int[]>> merged = newHeaps(templates.size());
+        for (Future<List<PriorityQueue<int[]>>> future : futures) {
+            List<PriorityQueue<int[]>> heaps = await(future);
+            for (int i = 0; i < templates.size(); i++) {
+                for (int[] hit : heaps.get(i)) {
+                    offer(merged.get(i), hit, topK);
+                }
+            }
+        }
 
-                    System.out.println("[FingerprintService] Capture " + captureCount + " stored");
+        List<List<Candidate>> results = new ArrayList<>(templates.size());
+        for (PriorityQueue<int[]> heap : merged) {
+            List<int[]> hits = new ArrayList<>(heap);
+            hits.sort((a, b) -> Integer.compare(b[0], a[0]));
+            List<Candidate> candidates = new ArrayList<>(hits.size());
+            for (int[] hit : hits) {
+                String registrationId = fidToRegistrationId.get(hit[1]);
+                Optional<Registration> reg = registrationId != null
+                        ? storageService.getRegistrationById(registrationId) : Optional.empty();
+                reg.ifPresent(r -> candidates.add(new Candidate(r, hit[0])));
+            }
+            results.add(candidates);
+        }
+        return results;
+    }
 
-                    // Wait a bit before next capture
-                    try { Thread.sleep(500); } catch (InterruptedException e) {}
+    /**
+     * Match every template in the batch against one slice of the gallery, keeping the best
+     * {@code topK} (score, fid) pairs per template
+     */
+    private List<PriorityQueue<int[]>> sweepChunk(List<Integer> fids, List<byte[]> templates, int topK, int minScore) {
+        List<PriorityQueue<int[]>> heaps = newHeaps(templates.size());
+        for (int fid : fids) {
+            String registrationId = fidToRegistrationId.get(fid);
+            if (registrationId == null) continue;
+            byte[] stored = base64ToBytes(storageService.getTemplateBase64(registrationId));
+            if (stored == null) continue;
+
+            for (int i = 0; i < templates.size(); i++) {
+                byte[] template = templates.get(i);
+                if (template == null) continue;
+                int score = FingerprintSensorEx.DBMatch(dbHandle, template, stored);
+                if (score >= minScore) {
+                    offer(heaps.get(i), new int[] { score, fid }, topK);
                 }
-
-                // Small delay between capture attempts
-                try { Thread.sleep(100); } catch (InterruptedException e) {}
             }
+        }
+        return heaps;
+    }
 
-            // Merge 3 captures into one registration template
-            byte[] mergedTemplate = new byte[2048];
-            int[] mergedLen = new int[1];
-            mergedLen[0] = 2048;
+    private static List<PriorityQueue<int[]>> newHeaps(int count) {
+        List<PriorityQueue<int[]>> heaps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // Min-heap on score, so the weakest of the current top K is evicted first
+            heaps.add(new PriorityQueue<>((a, b) -> Integer.compare(a[0], b[0])));
+        }
+        return heaps;
+    }
 
-            int ret = FingerprintSensorEx.DBMerge(dbHandle, 
-                registerTemplates[0], registerTemplates[1], registerTemplates[2],
-                mergedTemplate, mergedLen);
+    private static void offer(PriorityQueue<int[]> heap, int[] hit, int topK) {
+        if (heap.size() < topK) {
+            heap.add(hit);
+        } else if (hit[0] > heap.peek()[0]) {
+            heap.poll();
+            heap.add(hit);
+        }
+    }
 
-            if (ret != FingerprintSensorErrorCode.ZKFP_ERR_OK) {
-                return EnrollmentResult.failure("Failed to merge fingerprint templates, ret=" + ret);
-            }
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Identification interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Identification failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
 
-            System.out.println("[FingerprintService] Templates merged, size=" + mergedLen[0]);
+    /**
+     * 1:1 match score between two decoded templates (0 when the matcher is not initialized)
+     */
+    public int matchTemplates(byte[] a, byte[] b) {
+        long handle = dbHandle;
+        return handle != 0 ? FingerprintSensorEx.DBMatch(handle, a, b) : 0;
+    }
 
-            // Convert to Base64 for storage
-            String templateBase64 = FingerprintSensorEx.BlobToBase64(mergedTemplate, mergedLen[0]);
+    /**
+     * Decode a Base64 template from the API, or null if it is not a valid template
+     */
+    public static byte[] decodeTemplate(String templateBase64) {
+        byte[] template = base64ToBytes(templateBase64);
+        return template == null || template.length == 0 ? null : template;
+    }
 
-            // Save to storage with pre-generated ID
-            storageService.addRegistrationWithPregeneratedId(registrationId, name, role, templateBase64);
+    // ==================== Sensor Ownership ====================
 
-            // Add to in-memory DB
-            int fid = nextFingerprintId++;
-            ret = FingerprintSensorEx.DBAdd(dbHandle, fid, mergedTemplate);
-            if (ret == FingerprintSensorErrorCode.ZKFP_ERR_OK) {
-                fidToRegistrationId.put(fid, registrationId);
-                System.out.println("[FingerprintService] Added to DB with fid=" + fid);
-            } else {
-                System.err.println("[FingerprintService] Warning: Failed to add to DB, ret=" + ret);
+    /**
+     * Take the sensor for a foreground operation (IDLE or IDENTIFYING -> target)
+     * @return the mode that was replaced, or null if another operation owns the sensor
+     */
+    private DeviceMode claimSensor(DeviceMode target) {
+        while (true) {
+            DeviceMode current = deviceMode.get();
+            if (current != DeviceMode.IDLE && current != DeviceMode.IDENTIFYING) {
+                return null;
             }
-
-            System.out.println("[FingerprintService] Enrollment complete: " + registrationId);
-            return EnrollmentResult.success(registrationId);
-
-        } finally {
-            isEnrollmentInProgress.set(false);
-            if (wasIdentificationRunning) {
-                startIdentification();
+            if (deviceMode.compareAndSet(current, target)) {
+                return current;
             }
         }
     }
 
-    // ==================== Identification ====================
-
-    public static class IdentifyResult {
-        public boolean matched;
-        public Registration registration;
-        public int score;
-
-        public static IdentifyResult notFound() {
-            IdentifyResult r = new IdentifyResult();
-            r.matched = false;
-            return r;
+    /**
+     * Hand the sensor back after a foreground operation, resuming identification if it is wanted
+     */
+    private void releaseSensor(DeviceMode from) {
+        DeviceMode next = identificationRequested ? DeviceMode.IDENTIFYING : DeviceMode.IDLE;
+        if (!deviceMode.compareAndSet(from, next)) {
+            return;
+        }
+        // A start or stop that ran meanwhile found the sensor taken and left the mode to us,
+        // so follow the flag until it agrees with the mode we set
+        while (true) {
+            DeviceMode wanted = identificationRequested ? DeviceMode.IDENTIFYING : DeviceMode.IDLE;
+            if (wanted == next || !deviceMode.compareAndSet(next, wanted)) {
+                break;
+            }
+            next = wanted;
         }
+        signalModeChange();
+    }
 
-        public static IdentifyResult found(Registration registration, int score) {
-            IdentifyResult r = new IdentifyResult();
-            r.matched = true;
-            r.registration = registration;
-            r.score = score;
-            return r;
+    private void signalModeChange() {
+        synchronized (modeSignal) {
+            modeSignal.notifyAll();
         }
     }
 
     /**
-     * Identify a fingerprint template against the database
+     * Wait up to {@code timeoutMs} for the mode to move away from {@code current}
      */
-    public IdentifyResult identify(byte[] template, int templateLen) {
-        if (!isInitialized.get() || dbHandle == 0) {
-            return IdentifyResult.notFound();
-        }
-
-        int[] fid = new int[1];
-        int[] score = new int[1];
-
-        int ret = FingerprintSensorEx.DBIdentify(dbHandle, template, fid, score);
-
-        if (ret == FingerprintSensorErrorCode.ZKFP_ERR_OK) {
-            String registrationId = fidToRegistrationId.get(fid[0]);
-            if (registrationId != null) {
-                Optional<Registration> reg = storageService.getRegistrationById(registrationId);
-                if (reg.isPresent()) {
-                    return IdentifyResult.found(reg.get(), score[0]);
-                }
+    private void awaitModeChange(DeviceMode current, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (modeSignal) {
+            long remaining = timeoutMs;
+            while (deviceMode.get() == current && remaining > 0) {
+                modeSignal.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
             }
         }
-
-        return IdentifyResult.notFound();
     }
 
     /**
-     * Check if a template matches any existing registration (for import duplicate check)
+     * Why a claim failed, for the caller's error response
      */
-    public IdentifyResult checkDuplicate(String templateBase64) {
-        byte[] template = base64ToBytes(templateBase64);
-        if (template == null || template.length == 0) {
-            return IdentifyResult.notFound();
+    private String sensorBusyMessage() {
+        switch (deviceMode.get()) {
+            case SHUTTING_DOWN: return "Server is shutting down";
+            case VERIFYING: return "A verification is in progress";
+            default: return "Another enrollment is already in progress";
         }
-        return identify(template, template.length);
+    }
+
+    public DeviceMode getDeviceMode() {
+        return deviceMode.get();
     }
 
     // ==================== Background Identification ====================
@@ -401,59 +1677,125 @@ public class FingerprintService {
         this.onFingerprintIdentified = callback;
     }
 
+    public void setRemoteIdentifier(BiFunction<byte[], String, IdentifyResult> identifier) {
+        this.remoteIdentifier = identifier;
+    }
+
     public void startIdentification() {
         if (!isInitialized.get()) {
-            System.err.println("[FingerprintService] Cannot start identification - not initialized");
+            log.warn("Cannot start identification - not initialized");
             return;
         }
 
-        if (isIdentificationRunning.get()) {
-            System.out.println("[FingerprintService] Identification already running");
-            return;
-        }
+        identificationRequested = true;
+        // If an enrollment owns the sensor, identification resumes when it hands the sensor back
+        deviceMode.compareAndSet(DeviceMode.IDLE, DeviceMode.IDENTIFYING);
 
-        isIdentificationRunning.set(true);
-        identificationThread = new Thread(this::identificationLoop, "IdentificationThread");
-        identificationThread.start();
-        System.out.println("[FingerprintService] Identification started");
+        // The scan thread is started once and parks while identification is off
+        synchronized (this) {
+            if (identificationThread == null) {
+                identificationThread = new Thread(this::identificationLoop, "IdentificationThread");
+                identificationThread.setDaemon(true);
+                identificationThread.start();
+            }
+        }
+        signalModeChange();
+        log.info("Identification started");
     }
 
     public void stopIdentification() {
-        isIdentificationRunning.set(false);
-        if (identificationThread != null) {
-            identificationThread.interrupt();
-            try {
-                identificationThread.join(2000);
-            } catch (InterruptedException e) {
-                // Ignore
+        identificationRequested = false;
+        if (deviceMode.compareAndSet(DeviceMode.IDENTIFYING, DeviceMode.IDLE)) {
+            // Wait out a capture in progress so the caller knows the sensor is free
+            sensorLock.lock();
+            sensorLock.unlock();
+            signalModeChange();
+        }
+        log.info("Identification stopped");
+    }
+
+    /**
+     * Scan loop counters, plus the bytes the loop thread has allocated since it started
+     */
+    private static class ScanStats {
+        final AtomicLong polls = new AtomicLong();
+        final AtomicLong scans = new AtomicLong();
+        volatile long threadId = -1;
+        volatile long startAllocatedBytes;
+        volatile long startPolls;
+
+        void begin() {
+            threadId = Thread.currentThread().threadId();
+            startAllocatedBytes = allocatedBytes(threadId);
+            startPolls = polls.get();
+        }
+
+        static long allocatedBytes(long threadId) {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (threadId < 0 || !(bean instanceof com.sun.management.ThreadMXBean)) {
+                return -1;
             }
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(threadId);
         }
-        System.out.println("[FingerprintService] Identification stopped");
     }
 
+    private final ScanStats scanStats = new ScanStats();
+
     private void identificationLoop() {
-        System.out.println("[FingerprintService] Identification loop started");
+        log.info("Identification loop started");
+        scanStats.begin();
 
-        while (isIdentificationRunning.get()) {
-            // Skip if enrollment is in progress
-            if (isEnrollmentInProgress.get()) {
-                try { Thread.sleep(100); } catch (InterruptedException e) { break; }
+        while (true) {
+            DeviceMode mode = deviceMode.get();
+            if (mode == DeviceMode.SHUTTING_DOWN) {
+                break;
+            }
+            if (mode != DeviceMode.IDENTIFYING || !deviceSupervisor.isConnected()) {
+                // Sensor is idle, claimed by an enrollment or being reconnected; park until that changes
+                try { awaitModeChange(mode, 1000); } catch (InterruptedException e) { break; }
                 continue;
             }
 
-            captureTemplateLen[0] = 2048;
-            int ret = FingerprintSensorEx.AcquireFingerprint(deviceHandle, imageBuffer, captureTemplate, captureTemplateLen);
+            IdentifyResult result = null;
+            byte[] unmatched = null;
+            sensorLock.lock();
+            try {
+                // An enrollment may have claimed the sensor since the check above
+                if (deviceMode.get() != DeviceMode.IDENTIFYING) {
+                    continue;
+                }
+                // Re-read each time, the watchdog replaces the slot if the image size changes
+                CaptureSlot slot = scanSlot;
+                slot.prepareCapture();
+                FlightEvents.ScanCaptured captured = beginCapture();
+                int ret = FingerprintSensorEx.AcquireFingerprint(deviceHandle, slot.image, slot.template, slot.templateLen);
+                commitCapture(captured, ret, "identify", slot);
+                scanStats.polls.incrementAndGet();
+                deviceSupervisor.record(ret);
+                if (ret == FingerprintSensorErrorCode.ZKFP_ERR_OK) {
+                    result = identifyAccepted(slot, identificationScope);
+                    if (!result.matched && remoteIdentifier != null) {
+                        unmatched = Arrays.copyOf(slot.template, slot.templateLen[0]);
+                    }
+                }
+            } finally {
+                sensorLock.unlock();
+            }
 
-            if (ret == FingerprintSensorErrorCode.ZKFP_ERR_OK) {
-                IdentifyResult result = identify(captureTemplate, captureTemplateLen[0]);
-                String timestamp = Instant.now().toString();
+            // Asked outside the sensor lock, so an enrollment is not held up by the network
+            BiFunction<byte[], String, IdentifyResult> remote = remoteIdentifier;
+            if (unmatched != null && remote != null) {
+                result = remote.apply(unmatched, identificationScope);
+            }
 
+            if (result != null) {
+                scanStats.scans.incrementAndGet();
                 if (result.matched && onFingerprintIdentified != null) {
-                    System.out.println("[" + timestamp + "] [FingerprintService] Fingerprint identified: " + result.registration.getName() + " (score=" + result.score + ")");
+                    log.debug("Fingerprint identified: {} (score={})", result.registration.getName(), result.score);
                     LogService.logIdentified(result.registration.getName(), result.score);
                     onFingerprintIdentified.accept(result.registration, result.score);
                 } else if (!result.matched) {
-                    System.out.println("[" + timestamp + "] [FingerprintService] Unidentified fingerprint scan - no match found");
+                    log.debug("Unidentified fingerprint scan - no match found");
                     LogService.logUnidentified();
                     // Notify via webhook about unidentified scan
                     if (webhookService != null) {
@@ -461,15 +1803,40 @@ public class FingerprintService {
                     }
                 }
 
-                // Debounce - wait before accepting another scan
-                try { Thread.sleep(2000); } catch (InterruptedException e) { break; }
+                // Debounce - wait before accepting another scan (cut short by a mode change)
+                long debounceMs = EnvLoader.getInt("SCAN_DEBOUNCE_MS", 2000);
+                try { awaitModeChange(DeviceMode.IDENTIFYING, debounceMs); } catch (InterruptedException e) { break; }
             } else {
                 // No finger detected, poll again
-                try { Thread.sleep(200); } catch (InterruptedException e) { break; }
+                long pollMs = EnvLoader.getInt("SCAN_POLL_INTERVAL_MS", 200);
+                try { awaitModeChange(DeviceMode.IDENTIFYING, pollMs); } catch (InterruptedException e) { break; }
             }
         }
 
-        System.out.println("[FingerprintService] Identification loop stopped");
+        log.info("Identification loop stopped");
+    }
+
+    /**
+     * Flight recorder event timing one AcquireFingerprint call, or null while no recording has it
+     * enabled, so the idle scan loop allocates nothing. Only captures that returned a finger are
+     * committed, so idle polling does not fill a recording either.
+     */
+    private static FlightEvents.ScanCaptured beginCapture() {
+        if (!FlightEvents.SCAN_CAPTURED.isEnabled()) {
+            return null;
+        }
+        FlightEvents.ScanCaptured event = new FlightEvents.ScanCaptured();
+        event.begin();
+        return event;
+    }
+
+    private static void commitCapture(FlightEvents.ScanCaptured event, int ret, String mode, CaptureSlot slot) {
+        if (event != null && ret == FingerprintSensorErrorCode.ZKFP_ERR_OK && event.shouldCommit()) {
+            event.mode = mode;
+            event.templateBytes = slot.templateLen[0];
+            event.imageBytes = slot.image.length;
+            event.commit();
+        }
     }
 
     // ==================== Import Support ====================
@@ -478,23 +1845,20 @@ public class FingerprintService {
      * Import a fingerprint from exported data
      * @return Registration ID if successful, null if duplicate or error
      */
-    public EnrollmentResult importFingerprint(String name, String role, String templateBase64, String originalCreatedAt) {
+    public EnrollmentResult importFingerprint(String name, String role, List<String> groups,
+                                              String templateBase64, String originalCreatedAt) {
         if (!isInitialized.get()) {
             return EnrollmentResult.failure("Fingerprint service not initialized");
         }
 
-        // Check for duplicate fingerprint (biometric match)
-        IdentifyResult dupCheck = checkDuplicate(templateBase64);
-        if (dupCheck.matched) {
-            return EnrollmentResult.duplicate(
-                "Fingerprint already registered",
-                dupCheck.registration.getId(),
-                dupCheck.registration.getName()
-            );
+        // Decode template
+        byte[] template = base64ToBytes(templateBase64);
+        if (template == null || template.length == 0) {
+            return EnrollmentResult.failure("Invalid template data");
         }
 
-        // Check for duplicate name (case-insensitive)
-        if (storageService.isNameExists(name)) {
+        // Check for duplicate name (case-insensitive), including imports still in flight
+        if (!reserveName(name)) {
             Optional<Registration> existing = storageService.getRegistrationByName(name);
             if (existing.isPresent()) {
                 return EnrollmentResult.duplicate(
@@ -506,39 +1870,117 @@ public class FingerprintService {
             return EnrollmentResult.failure("Name already exists");
         }
 
-        // Decode template
-        byte[] template = base64ToBytes(templateBase64);
-        if (template == null || template.length == 0) {
-            return EnrollmentResult.failure("Invalid template data");
-        }
-
-        // Generate new ID and save
-        String newId = storageService.generateNewId();
-        Registration registration = storageService.addRegistrationWithId(
-            newId, name, role, templateBase64, null // Use current time, not original
-        );
+        try {
+            // Check for duplicate fingerprint (biometric match); runs in parallel with other imports
+            long checkedAt = matcherAdds.get();
+            IdentifyResult dupCheck = identify(template, template.length);
+            if (dupCheck.matched) {
+                return EnrollmentResult.duplicate(
+                    "Fingerprint already registered",
+                    dupCheck.registration.getId(),
+                    dupCheck.registration.getName()
+                );
+            }
 
-        if (registration == null) {
-            return EnrollmentResult.failure("Failed to save registration");
+            // Generate new ID, save and add to in-memory DB and scope partitions
+            String newId = storageService.generateNewId();
+            EnrollmentResult result = commitRegistration(checkedAt, template, () ->
+                    storageService.addRegistrationWithId(
+                        newId, name, role, groups, templateBase64, null // Use current time, not original
+                    ));
+            if (result.success) {
+                log.info("Imported fingerprint: {} (id={})", name, newId);
+            }
+            return result;
+        } finally {
+            releaseName(name);
         }
+    }
 
-        // Add to in-memory DB
-        int fid = nextFingerprintId++;
-        int ret = FingerprintSensorEx.DBAdd(dbHandle, fid, template);
-        if (ret == FingerprintSensorErrorCode.ZKFP_ERR_OK) {
-            fidToRegistrationId.put(fid, newId);
-        }
+    // ==================== Replication Support ====================
 
-        System.out.println("[FingerprintService] Imported fingerprint: " + name + " (id=" + newId + ")");
-        return EnrollmentResult.success(newId);
+    /**
+     * Apply a registration added on the replication leader, keeping its id and creation time.
+     * The leader already checked it for duplicates, so no biometric search is made here.
+     * @return false if the template is invalid or the registration could not be stored
+     */
+    public boolean applyReplicatedAdd(Registration registration, String templateBase64) {
+        byte[] template = base64ToBytes(templateBase64);
+        if (template == null || template.length == 0) {
+            log.error("Invalid replicated template for {}", registration.getId());
+            return false;
+        }
+        return onMatcherLane(() -> {
+            if (storageService.getRegistrationById(registration.getId()).isPresent()) {
+                return true;
+            }
+            Registration stored = storageService.addRegistrationWithId(registration.getId(),
+                    registration.getName(), registration.getRole(), registration.getGroups(),
+                    templateBase64, registration.getCreatedAt());
+            if (stored == null) {
+                return false;
+            }
+            int fid = nextFingerprintId.getAndIncrement();
+            if (!addToMatcher(fid, template, stored)) {
+                log.warn("Failed to add replicated registration to DB: {}", stored.getName());
+            }
+            return true;
+        });
     }
 
     // ==================== Cleanup ====================
 
     public synchronized void shutdown() {
-        System.out.println("[FingerprintService] Shutting down...");
+        log.info("Shutting down...");
+
+        // A warm-up waiting for the device gives up; one loading templates holds this lock until done
+        warmupCancelled = true;
+        Thread warmup = warmupThread;
+        if (warmup != null) {
+            warmup.interrupt();
+        }
+
+        // Refuse new claims and let the scan thread finish its current capture
+        identificationRequested = false;
+        deviceMode.set(DeviceMode.SHUTTING_DOWN);
+        signalModeChange();
+        Thread scanThread = identificationThread;
+        if (scanThread != null) {
+            try {
+                scanThread.join(2000);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        }
+        if (identifyPool != null) {
+            identifyPool.shutdownNow();
+        }
+        if (matcherLane != null) {
+            // Let registrations already committing finish before the snapshot is saved
+            matcherLane.shutdown();
+            try {
+                matcherLane.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        }
+        captureArchiver.shutdown();
+        if (deviceSupervisor != null) {
+            deviceSupervisor.shutdown();
+        }
+        if (isInitialized.get() && snapshotDirty.get()) {
+            saveMatcherSnapshot();
+        }
 
-        stopIdentification();
+        partitionLock.writeLock().lock();
+        try {
+            for (ScopePartition partition : scopePartitions.values()) {
+                FingerprintSensorEx.DBFree(partition.dbHandle);
+            }
+            scopePartitions = Collections.emptyMap();
+        } finally {
+            partitionLock.writeLock().unlock();
+        }
 
         if (dbHandle != 0) {
             FingerprintSensorEx.DBFree(dbHandle);
@@ -553,7 +1995,7 @@ public class FingerprintService {
         FingerprintSensorEx.Terminate();
         isInitialized.set(false);
 
-        System.out.println("[FingerprintService] Shutdown complete");
+        log.info("Shutdown complete");
     }
 
     // ==================== Status ====================
@@ -562,12 +2004,74 @@ public class FingerprintService {
         return isInitialized.get();
     }
 
+    public static class WarmupStatus {
+        public boolean ready;
+        public String phase;
+        public int templatesLoaded;
+        public int templatesTotal;
+        public double progress;
+        public long elapsedMs;
+        public String error;
+    }
+
+    public WarmupStatus getWarmupStatus() {
+        WarmupStatus s = new WarmupStatus();
+        s.ready = isInitialized.get();
+        s.phase = warmupPhase.name().toLowerCase();
+        s.templatesLoaded = templatesLoaded.get();
+        s.templatesTotal = templatesTotal;
+        s.progress = s.ready ? 1.0 : s.templatesTotal > 0 ? (double) s.templatesLoaded / s.templatesTotal : 0.0;
+        long startedAt = warmupStartedAt;
+        long end = s.ready && warmupReadyAt > 0 ? warmupReadyAt : System.currentTimeMillis();
+        s.elapsedMs = startedAt > 0 ? end - startedAt : 0;
+        s.error = warmupError;
+        return s;
+    }
+
     public boolean isIdentificationRunning() {
-        return isIdentificationRunning.get();
+        return deviceMode.get() == DeviceMode.IDENTIFYING;
     }
 
     public boolean isEnrollmentInProgress() {
-        return isEnrollmentInProgress.get();
+        return deviceMode.get() == DeviceMode.ENROLLING;
+    }
+
+    public static class ScanLoopStats {
+        public long polls;
+        public long scans;
+        public long allocatedBytes;     // by the current loop thread since it started, -1 if unsupported
+        public double bytesPerPoll;
+        public int captureSlots;
+        public int captureSlotsFree;
+        public long captureSlotsExhausted;
+    }
+
+    public ScanLoopStats getScanLoopStats() {
+        ScanLoopStats s = new ScanLoopStats();
+        s.polls = scanStats.polls.get();
+        s.scans = scanStats.scans.get();
+        long now = ScanStats.allocatedBytes(scanStats.threadId);
+        s.allocatedBytes = now >= 0 ? now - scanStats.startAllocatedBytes : -1;
+        long loopPolls = s.polls - scanStats.startPolls;
+        s.bytesPerPoll = s.allocatedBytes >= 0 && loopPolls > 0 ? (double) s.allocatedBytes / loopPolls : 0.0;
+        if (slotPool != null) {
+            s.captureSlots = slotPool.getSize();
+            s.captureSlotsFree = slotPool.getFree();
+            s.captureSlotsExhausted = slotPool.getExhausted();
+        }
+        return s;
+    }
+
+    public DeviceSupervisor.Stats getDeviceStats() {
+        return deviceSupervisor != null ? deviceSupervisor.getStats() : null;
+    }
+
+    public CaptureArchiver.Stats getCaptureArchiverStats() {
+        return captureArchiver.getStats();
+    }
+
+    public RecentMatchCache.Stats getRecentMatchCacheStats() {
+        return recentMatchCache.getStats();
     }
 
     public int getRegisteredCount() {
@@ -584,6 +2088,9 @@ public class FingerprintService {
         return number;
     }
 
+    private static final ThreadLocal<byte[]> DECODE_BUFFER =
+            ThreadLocal.withInitial(() -> new byte[CaptureSlot.TEMPLATE_SIZE]);
+
     /**
      * Convert Base64 string to byte array using SDK method
      */
@@ -592,11 +2099,9 @@ public class FingerprintService {
             return null;
         }
         try {
-            // SDK's Base64ToBlob requires output buffer and length
-            byte[] buffer = new byte[2048];
-            int[] length = new int[1];
-            length[0] = buffer.length;
-            int ret = FingerprintSensorEx.Base64ToBlob(base64, buffer, length[0]);
+            // SDK's Base64ToBlob requires an output buffer; a per-thread scratch buffer is reused
+            byte[] buffer = DECODE_BUFFER.get();
+            int ret = FingerprintSensorEx.Base64ToBlob(base64, buffer, buffer.length);
             if (ret > 0) {
                 byte[] result = new byte[ret];
                 System.arraycopy(buffer, 0, result, 0, ret);
@@ -604,90 +2109,27 @@ public class FingerprintService {
             }
             return null;
         } catch (Exception e) {
-            System.err.println("[FingerprintService] Base64 decode error: " + e.getMessage());
+            log.error("Base64 decode error: {}", e.getMessage());
             return null;
         }
     }
 
-    // ==================== BMP Writing ====================
+    // ==================== Capture Archiving ====================
 
     /**
-     * Save captured fingerprint image as BMP
+     * Queue the current capture image for background archiving (BMP, PNG or none)
      */
-    private void saveCapturedBmp(String registrationId, int captureNumber, byte[] imageData) {
-        try {
-            String dirPath = storageService.ensureFingerprintDir(registrationId);
-            String bmpPath = dirPath + "/capture_" + captureNumber + ".bmp";
-            writeBitmap(imageData, imageWidth, imageHeight, bmpPath);
-            System.out.println("[FingerprintService] Saved BMP: " + bmpPath);
-        } catch (IOException e) {
-            System.err.println("[FingerprintService] Failed to save BMP: " + e.getMessage());
-        }
-    }
-
-    private static void writeBitmap(byte[] imageBuf, int nWidth, int nHeight, String path) throws IOException {
-        FileOutputStream fos = new FileOutputStream(path);
-        DataOutputStream dos = new DataOutputStream(fos);
-
-        int w = (((nWidth + 3) / 4) * 4);
-        int bfType = 0x424d;
-        int bfSize = 54 + 1024 + w * nHeight;
-        int bfReserved1 = 0;
-        int bfReserved2 = 0;
-        int bfOffBits = 54 + 1024;
-
-        dos.writeShort(bfType);
-        dos.write(intToByteArray(bfSize), 0, 4);
-        dos.write(intToByteArray(bfReserved1), 0, 2);
-        dos.write(intToByteArray(bfReserved2), 0, 2);
-        dos.write(intToByteArray(bfOffBits), 0, 4);
-
-        int biSize = 40;
-        int biPlanes = 1;
-        int biBitcount = 8;
-        int biCompression = 0;
-        int biSizeImage = w * nHeight;
-
-        dos.write(intToByteArray(biSize), 0, 4);
-        dos.write(intToByteArray(nWidth), 0, 4);
-        dos.write(intToByteArray(nHeight), 0, 4);
-        dos.write(intToByteArray(biPlanes), 0, 2);
-        dos.write(intToByteArray(biBitcount), 0, 2);
-        dos.write(intToByteArray(biCompression), 0, 4);
-        dos.write(intToByteArray(biSizeImage), 0, 4);
-        dos.write(intToByteArray(0), 0, 4); // biXPelsPerMeter
-        dos.write(intToByteArray(0), 0, 4); // biYPelsPerMeter
-        dos.write(intToByteArray(0), 0, 4); // biClrUsed
-        dos.write(intToByteArray(0), 0, 4); // biClrImportant
-
-        // Write grayscale palette
-        for (int i = 0; i < 256; i++) {
-            dos.writeByte(i);
-            dos.writeByte(i);
-            dos.writeByte(i);
-            dos.writeByte(0);
-        }
-
-        // Write image data (bottom-up)
-        byte[] padding = new byte[w - nWidth];
-        for (int i = 0; i < nHeight; i++) {
-            dos.write(imageBuf, (nHeight - 1 - i) * nWidth, nWidth);
-            if (w > nWidth) {
-                dos.write(padding, 0, w - nWidth);
-            }
-        }
-
-        dos.flush();
-        dos.close();
-        fos.close();
-    }
-
-    private static byte[] intToByteArray(int number) {
-        byte[] abyte = new byte[4];
-        abyte[0] = (byte) (0xff & number);
-        abyte[1] = (byte) ((0xff00 & number) >> 8);
-        abyte[2] = (byte) ((0xff0000 & number) >> 16);
-        abyte[3] = (byte) ((0xff000000 & number) >> 24);
-        return abyte;
+    private void archiveCapture(String registrationId, int captureNumber) {
+        if (captureArchiver.getFormat() == CaptureArchiver.Format.NONE) {
+            return;
+        }
+        // Copy into a free pooled slot; the archiver releases it after writing
+        CaptureSlot slot = slotPool.tryAcquire();
+        if (slot == null) {
+            log.warn("No free capture slot, capture_{} not archived", captureNumber);
+            return;
+        }
+        slot.copyImageFrom(enrollSlot);
+        captureArchiver.submit(slot, storageService.getFingerprintDir(registrationId), "capture_" + captureNumber);
     }
 }
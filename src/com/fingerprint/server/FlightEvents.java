@@ -0,0 +1,165 @@
+package com.fingerprint.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * FlightEvents - Java Flight Recorder events for the scan, enrollment and I/O paths
+ *
+ * Each event's duration is the time spent in that step, so a recording shows where a slow
+ * scan went: capture, matcher, storage, webhook or log file. Events cost next to nothing
+ * unless a recording has them enabled (see fingerprint.jfc and POST /api/jfr/start).
+ * Usage: create, {@code begin()}, do the work, then fill the fields and {@code commit()}
+ * only if {@code shouldCommit()}.
+ */
+public final class FlightEvents {
+    // Checked before creating the events of the scan loop and identify, which run on every
+    // poll or request: nothing is allocated while no recording has them enabled
+    static final EventType SCAN_CAPTURED = EventType.getEventType(ScanCaptured.class);
+    static final EventType IDENTIFY_COMPLETED = EventType.getEventType(IdentifyCompleted.class);
+
+    private FlightEvents() {
+    }
+
+    @Name("com.fingerprint.ScanCaptured")
+    @Label("Scan Captured")
+    @Description("A finger was captured by the reader (duration is the AcquireFingerprint call)")
+    @Category({"Fingerprint", "Scan"})
+    @StackTrace(false)
+    public static class ScanCaptured extends Event {
+        @Label("Mode")
+        @Description("identify, enroll or verify")
+        public String mode;
+
+        @Label("Template Size")
+        @DataAmount
+        public int templateBytes;
+
+        @Label("Image Size")
+        @DataAmount
+        public int imageBytes;
+    }
+
+    @Name("com.fingerprint.IdentifyCompleted")
+    @Label("Identify Completed")
+    @Description("One 1:N identification against the matcher, including the recent-match cache probe")
+    @Category({"Fingerprint", "Matcher"})
+    @StackTrace(false)
+    public static class IdentifyCompleted extends Event {
+        @Label("Scope")
+        public String scope;
+
+        @Label("Matched")
+        public boolean matched;
+
+        @Label("Score")
+        public int score;
+
+        @Label("Cache Hit")
+        public boolean cacheHit;
+    }
+
+    @Name("com.fingerprint.EnrollmentStep")
+    @Label("Enrollment Step")
+    @Description("One step of an enrollment: capture, duplicateCheck, sameFinger, merge or commit")
+    @Category({"Fingerprint", "Enrollment"})
+    @StackTrace(false)
+    public static class EnrollmentStep extends Event {
+        @Label("Registration Id")
+        public String registrationId;
+
+        @Label("Step")
+        public String step;
+
+        @Label("Capture")
+        @Description("Number of captures stored when the step ran")
+        public int capture;
+
+        @Label("Quality")
+        public int quality;
+
+        @Label("Result")
+        @Description("SDK return code, or 0")
+        public int result;
+    }
+
+    @Name("com.fingerprint.WebhookSent")
+    @Label("Webhook Sent")
+    @Description("One webhook POST, from connect to response code")
+    @Category({"Fingerprint", "Webhook"})
+    @StackTrace(false)
+    public static class WebhookSent extends Event {
+        @Label("URL")
+        public String url;
+
+        @Label("Event Type")
+        public String eventType;
+
+        @Label("Status")
+        @Description("HTTP status, or 0 if no response was received")
+        public int status;
+
+        @Label("Payload Size")
+        @DataAmount
+        public int payloadBytes;
+
+        @Label("Error")
+        public String error;
+    }
+
+    @Name("com.fingerprint.StorageFlush")
+    @Label("Storage Flush")
+    @Description("A write of registration data to disk")
+    @Category({"Fingerprint", "Storage"})
+    @StackTrace(false)
+    public static class StorageFlush extends Event {
+        @Label("File")
+        @Description("fingerprints.json or template")
+        public String file;
+
+        @Label("Registrations")
+        public int registrations;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("com.fingerprint.StorageLookup")
+    @Label("Storage Lookup")
+    @Description("A template read from disk")
+    @Category({"Fingerprint", "Storage"})
+    @StackTrace(false)
+    public static class StorageLookup extends Event {
+        @Label("Registration Id")
+        public String registrationId;
+
+        @Label("Found")
+        public boolean found;
+
+        @Label("Size")
+        @DataAmount
+        public int bytes;
+    }
+
+    @Name("com.fingerprint.LogWrite")
+    @Label("Log Write")
+    @Description("A line written to a scan or API log file, including the wait for the log lock")
+    @Category({"Fingerprint", "Logging"})
+    @StackTrace(false)
+    public static class LogWrite extends Event {
+        @Label("Log")
+        @Description("scan or api")
+        public String log;
+
+        @Label("Size")
+        @DataAmount
+        public int bytes;
+    }
+}
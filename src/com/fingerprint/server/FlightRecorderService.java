@@ -0,0 +1,168 @@
+package com.fingerprint.server;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * FlightRecorderService - Starts and dumps a Java Flight Recorder recording on demand
+ *
+ * One recording at a time, using the event settings in JFR_PROFILE (fingerprint.jfc by
+ * default, the JDK "default" profile if that file cannot be read). The recording keeps the
+ * last JFR_MAX_AGE_MINUTES / JFR_MAX_SIZE_MB in a ring buffer on disk, so it can be left
+ * running and dumped after a slow period. Dumps go to data/jfr and open in JDK Mission
+ * Control or with {@code jfr print --events com.fingerprint.*}.
+ */
+public class FlightRecorderService {
+    private static final Logger log = LoggerFactory.getLogger(FlightRecorderService.class);
+
+    private static final String JFR_DIR = "jfr";
+    private static final DateTimeFormatter FILE_TIME =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneId.systemDefault());
+
+    private final StorageService storageService;
+
+    private Recording recording;
+    private String profile;
+    private Instant startedAt;
+    private int dumps;
+    private Dump lastDump;
+
+    public static class Dump {
+        public String file;
+        public long bytes;
+        public String dumpedAt;
+    }
+
+    public FlightRecorderService(StorageService storageService) {
+        this.storageService = storageService;
+    }
+
+    /**
+     * Start a recording; false if one is already running
+     */
+    public synchronized boolean start() {
+        if (recording != null) {
+            return false;
+        }
+        Configuration configuration = loadConfiguration();
+        Recording r = new Recording(configuration);
+        r.setName("fingerprint");
+        r.setToDisk(true);
+        r.setMaxAge(Duration.ofMinutes(getMaxAgeMinutes()));
+        r.setMaxSize(getMaxSizeMb() * 1024L * 1024L);
+        r.start();
+        recording = r;
+        startedAt = Instant.now();
+        log.info("Flight recording started with profile {}", profile);
+        return true;
+    }
+
+    /**
+     * Write what the running recording holds to data/jfr; null if no recording is running
+     */
+    public synchronized Dump dump() throws IOException {
+        if (recording == null) {
+            return null;
+        }
+        Path dir = Paths.get(storageService.getDataFile(JFR_DIR));
+        Files.createDirectories(dir);
+        Path file = dir.resolve("fingerprint-" + FILE_TIME.format(Instant.now()) + ".jfr");
+        recording.dump(file);
+
+        Dump d = new Dump();
+        d.file = file.toString();
+        d.bytes = Files.size(file);
+        d.dumpedAt = Instant.now().toString();
+        dumps++;
+        lastDump = d;
+        log.info("Flight recording dumped to {} ({} bytes)", d.file, d.bytes);
+        return d;
+    }
+
+    /**
+     * Dump and close the running recording; null if no recording is running
+     */
+    public synchronized Dump stop() throws IOException {
+        if (recording == null) {
+            return null;
+        }
+        try {
+            return dump();
+        } finally {
+            recording.close();
+            recording = null;
+            log.info("Flight recording stopped");
+        }
+    }
+
+    /**
+     * Close a running recording without dumping it (server shutdown)
+     */
+    public synchronized void shutdown() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+    }
+
+    private Configuration loadConfiguration() {
+        String path = EnvLoader.get("JFR_PROFILE", "fingerprint.jfc");
+        try {
+            Configuration configuration = Configuration.create(Paths.get(path));
+            profile = path;
+            return configuration;
+        } catch (IOException | ParseException e) {
+            log.warn("Cannot load JFR profile {} ({}), using the JDK default profile", path, e.getMessage());
+        }
+        try {
+            profile = "default";
+            return Configuration.getConfiguration("default");
+        } catch (IOException | ParseException e) {
+            throw new IllegalStateException("JDK default JFR profile not available", e);
+        }
+    }
+
+    private static int getMaxAgeMinutes() {
+        return Math.max(1, EnvLoader.getInt("JFR_MAX_AGE_MINUTES", 30));
+    }
+
+    private static int getMaxSizeMb() {
+        return Math.max(1, EnvLoader.getInt("JFR_MAX_SIZE_MB", 100));
+    }
+
+    // ==================== Metrics ====================
+
+    public static class Stats {
+        public boolean running;
+        public String profile;
+        public String startedAt;
+        public int maxAgeMinutes;
+        public int maxSizeMb;
+        public int dumps;
+        public Dump lastDump;
+    }
+
+    public synchronized Stats getStats() {
+        Stats s = new Stats();
+        s.running = recording != null;
+        s.profile = profile;
+        s.startedAt = startedAt != null ? startedAt.toString() : null;
+        s.maxAgeMinutes = getMaxAgeMinutes();
+        s.maxSizeMb = getMaxSizeMb();
+        s.dumps = dumps;
+        s.lastDump = lastDump;
+        return s;
+    }
+}
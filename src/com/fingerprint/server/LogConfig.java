@@ -0,0 +1,243 @@
+package com.fingerprint.server;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LogConfig - Console logging setup for the bundled slf4j-simple binding
+ *
+ * slf4j-simple reads its settings from system properties when the first logger is created,
+ * so {@link #init()} must run before any class with a logger is loaded (FingerprintServer
+ * calls it from a static initializer). LOG_LEVEL is therefore read from the system property,
+ * the environment or .env directly rather than through EnvLoader, which has a logger itself.
+ *
+ * With LOG_ASYNC (default on), System.out is replaced by a stream that only queues complete
+ * lines; a daemon thread writes them to the console. A slow console (e.g. a Windows terminal
+ * being scrolled or selected) then delays log output instead of the scan and webhook threads.
+ * Lines are dropped and counted if the queue is full.
+ */
+public final class LogConfig {
+    private static final String PREFIX = "org.slf4j.simpleLogger.";
+    private static final int QUEUE_LINES = 8192;
+
+    private static boolean initialized = false;
+    private static String level = "info";
+    private static AsyncConsole asyncConsole;
+
+    private LogConfig() {
+    }
+
+    /**
+     * Configure slf4j-simple and the console stream. Safe to call more than once.
+     */
+    public static synchronized void init() {
+        if (initialized) return;
+        initialized = true;
+
+        level = normalizeLevel(setting("LOG_LEVEL", "info"));
+        setDefault(PREFIX + "logFile", "System.out");
+        setDefault(PREFIX + "defaultLogLevel", "info");
+        setDefault(PREFIX + "log.com.fingerprint", level);
+        setDefault(PREFIX + "showDateTime", "true");
+        setDefault(PREFIX + "dateTimeFormat", "yyyy-MM-dd HH:mm:ss.SSS");
+        setDefault(PREFIX + "showThreadName", "false");
+        setDefault(PREFIX + "showShortLogName", "true");
+        setDefault(PREFIX + "levelInBrackets", "true");
+
+        if (!"false".equalsIgnoreCase(setting("LOG_ASYNC", "true"))) {
+            asyncConsole = new AsyncConsole(new FileOutputStream(FileDescriptor.out), QUEUE_LINES);
+            System.setOut(new PrintStream(asyncConsole, true));
+        }
+    }
+
+    /**
+     * Write out queued lines (called from the shutdown hook)
+     */
+    public static void shutdown() {
+        AsyncConsole console = asyncConsole;
+        if (console != null) {
+            console.close();
+        }
+    }
+
+    public static class Stats {
+        public String level;
+        public boolean async;
+        public int queued;
+        public long written;
+        public long dropped;
+    }
+
+    public static Stats getStats() {
+        Stats s = new Stats();
+        s.level = level;
+        AsyncConsole console = asyncConsole;
+        s.async = console != null;
+        if (console != null) {
+            s.queued = console.queue.size();
+            s.written = console.written.get();
+            s.dropped = console.dropped.get();
+        }
+        return s;
+    }
+
+    // ==================== Settings ====================
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Look up a setting in system properties, the environment, then .env in the working directory
+     */
+    private static String setting(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(key);
+        }
+        if (value == null) {
+            value = readEnvFile(key);
+        }
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    private static String readEnvFile(String key) {
+        File envFile = new File(".env");
+        if (!envFile.exists()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(envFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith(key + "=")) {
+                    String value = line.substring(key.length() + 1).trim();
+                    if (value.length() >= 2 && (value.startsWith("\"") && value.endsWith("\"")
+                            || value.startsWith("'") && value.endsWith("'"))) {
+                        value = value.substring(1, value.length() - 1);
+                    }
+                    return value;
+                }
+            }
+        } catch (IOException e) {
+            // Fall back to the default level
+        }
+        return null;
+    }
+
+    private static String normalizeLevel(String value) {
+        String lower = value.toLowerCase(Locale.ROOT);
+        if (Arrays.asList("trace", "debug", "info", "warn", "error", "off").contains(lower)) {
+            return lower;
+        }
+        System.err.println("[LogConfig] Unknown LOG_LEVEL '" + value + "', using info");
+        return "info";
+    }
+
+    // ==================== Async Console ====================
+
+    /**
+     * Output stream that collects bytes until a flush (PrintStream flushes after each println)
+     * and hands the finished line to a writer thread
+     */
+    private static class AsyncConsole extends OutputStream {
+        private final BlockingQueue<byte[]> queue;
+        private final OutputStream target;
+        private final Thread writerThread;
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile boolean running = true;
+
+        // Guarded by this; PrintStream already serializes its writers
+        private byte[] pending = new byte[256];
+        private int pendingLength = 0;
+
+        AsyncConsole(OutputStream target, int capacity) {
+            this.target = new BufferedOutputStream(target, 1 << 16);
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.writerThread = new Thread(this::writerLoop, "ConsoleLogThread");
+            this.writerThread.setDaemon(true);
+            this.writerThread.start();
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            ensureCapacity(1);
+            pending[pendingLength++] = (byte) b;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            System.arraycopy(b, off, pending, pendingLength, len);
+            pendingLength += len;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (pendingLength + extra > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + extra));
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            if (pendingLength == 0) return;
+            byte[] line = Arrays.copyOf(pending, pendingLength);
+            pendingLength = 0;
+            if (!running || !queue.offer(line)) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        private void writerLoop() {
+            List<byte[]> batch = new ArrayList<>();
+            while (running || !queue.isEmpty()) {
+                try {
+                    byte[] first = queue.poll(200, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    for (byte[] line : batch) {
+                        target.write(line);
+                    }
+                    target.flush();
+                    written.addAndGet(batch.size());
+                } catch (InterruptedException e) {
+                    break;
+                } catch (IOException e) {
+                    // Console gone; keep draining so callers never block
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            flush();
+            running = false;
+            try {
+                writerThread.join(2000);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        }
+    }
+}
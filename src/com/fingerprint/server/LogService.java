@@ -1,5 +1,8 @@
 package com.fingerprint.server;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.*;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -13,6 +16,8 @@ import java.time.format.DateTimeFormatter;
  * - ./log_api_YYYY-MM-DD.log for API requests
  */
 public class LogService {
+    private static final Logger log = LoggerFactory.getLogger(LogService.class);
+
     private static final String SCAN_LOG_PREFIX = "./log_scan_";
     private static final String API_LOG_PREFIX = "./log_api_";
     private static final String LOG_SUFFIX = ".log";
@@ -32,6 +37,8 @@ public class LogService {
      * Log a fingerprint scan event (identified, unidentified, or webhook)
      */
     public static void logScan(String message) {
+        FlightEvents.LogWrite event = new FlightEvents.LogWrite();
+        event.begin();
         synchronized (scanLock) {
             try {
                 ensureScanLogWriter();
@@ -39,8 +46,13 @@ public class LogService {
                 String logLine = "[" + timestamp + "] " + message;
                 scanLogWriter.println(logLine);
                 scanLogWriter.flush();
+                if (event.shouldCommit()) {
+                    event.log = "scan";
+                    event.bytes = logLine.length() + 1;
+                    event.commit();
+                }
             } catch (Exception e) {
-                System.err.println("[LogService] Error writing to scan log: " + e.getMessage());
+                log.error("Error writing to scan log: {}", e.getMessage());
             }
         }
     }
@@ -59,6 +71,13 @@ public class LogService {
         logScan("UNIDENTIFIED | no match found");
     }
     
+    /**
+     * Log a 1:1 verification against a claimed identity
+     */
+    public static void logVerified(String name, boolean matched, int score) {
+        logScan((matched ? "VERIFIED" : "REJECTED") + " | name=" + name + " | score=" + score);
+    }
+    
     /**
      * Log a webhook call
      */
@@ -77,6 +96,8 @@ public class LogService {
      * Log an API request
      */
     public static void logApi(String message) {
+        FlightEvents.LogWrite event = new FlightEvents.LogWrite();
+        event.begin();
         synchronized (apiLock) {
             try {
                 ensureApiLogWriter();
@@ -84,8 +105,13 @@ public class LogService {
                 String logLine = "[" + timestamp + "] " + message;
                 apiLogWriter.println(logLine);
                 apiLogWriter.flush();
+                if (event.shouldCommit()) {
+                    event.log = "api";
+                    event.bytes = logLine.length() + 1;
+                    event.commit();
+                }
             } catch (Exception e) {
-                System.err.println("[LogService] Error writing to API log: " + e.getMessage());
+                log.error("Error writing to API log: {}", e.getMessage());
             }
         }
     }
@@ -123,7 +149,7 @@ public class LogService {
             String filename = SCAN_LOG_PREFIX + today + LOG_SUFFIX;
             scanLogWriter = new PrintWriter(new FileWriter(filename, true)); // append mode
             currentScanLogDate = today;
-            System.out.println("[LogService] Opened scan log: " + filename);
+            log.info("Opened scan log: {}", filename);
         }
     }
     
@@ -142,7 +168,7 @@ public class LogService {
             String filename = API_LOG_PREFIX + today + LOG_SUFFIX;
             apiLogWriter = new PrintWriter(new FileWriter(filename, true)); // append mode
             currentApiLogDate = today;
-            System.out.println("[LogService] Opened API log: " + filename);
+            log.info("Opened API log: {}", filename);
         }
     }
     
@@ -164,6 +190,6 @@ public class LogService {
                 currentApiLogDate = "";
             }
         }
-        System.out.println("[LogService] Log writers closed");
+        log.info("Log writers closed");
     }
 }
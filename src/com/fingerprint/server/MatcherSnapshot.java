@@ -0,0 +1,161 @@
+package com.fingerprint.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * MatcherSnapshot - Persisted copy of the matcher DB contents for fast restart
+ *
+ * Holds the fid to registration id mapping, the decoded templates in one contiguous
+ * block and the storage version the snapshot was taken at. Layout (big-endian):
+ *
+ *   header   magic, format, storageVersion, nextFid, count
+ *   index    count x (fid, idLength, id UTF-8 bytes, templateLength)
+ *   blob     all templates back to back, in index order
+ *   trailer  CRC32 of everything above
+ */
+public class MatcherSnapshot {
+    private static final Logger log = LoggerFactory.getLogger(MatcherSnapshot.class);
+
+    private static final int MAGIC = 0x46504D53; // "FPMS"
+    private static final int FORMAT_VERSION = 1;
+
+    public static class Entry {
+        public final int fid;
+        public final String registrationId;
+        public final byte[] template;
+
+        public Entry(int fid, String registrationId, byte[] template) {
+            this.fid = fid;
+            this.registrationId = registrationId;
+            this.template = template;
+        }
+    }
+
+    private final long storageVersion;
+    private final int nextFid;
+    private final List<Entry> entries;
+
+    public MatcherSnapshot(long storageVersion, int nextFid, List<Entry> entries) {
+        this.storageVersion = storageVersion;
+        this.nextFid = nextFid;
+        this.entries = entries;
+    }
+
+    public long getStorageVersion() {
+        return storageVersion;
+    }
+
+    public int getNextFid() {
+        return nextFid;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    // ==================== Read ====================
+
+    /**
+     * Read a snapshot with one bulk sequential read. Returns null if the file is missing or invalid.
+     */
+    public static MatcherSnapshot read(String path) {
+        Path file = Paths.get(path);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            byte[] data = Files.readAllBytes(file);
+            if (data.length < 4) {
+                throw new IOException("file too short");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length - 4);
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            if (buf.getInt(data.length - 4) != (int) crc.getValue()) {
+                throw new IOException("checksum mismatch");
+            }
+
+            if (buf.getInt() != MAGIC || buf.getInt() != FORMAT_VERSION) {
+                throw new IOException("unknown format");
+            }
+            long storageVersion = buf.getLong();
+            int nextFid = buf.getInt();
+            int count = buf.getInt();
+
+            int[] fids = new int[count];
+            String[] ids = new String[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                fids[i] = buf.getInt();
+                byte[] id = new byte[buf.getShort() & 0xFFFF];
+                buf.get(id);
+                ids[i] = new String(id, StandardCharsets.UTF_8);
+                lengths[i] = buf.getInt();
+            }
+
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] template = new byte[lengths[i]];
+                buf.get(template);
+                entries.add(new Entry(fids[i], ids[i], template));
+            }
+            return new MatcherSnapshot(storageVersion, nextFid, entries);
+        } catch (IOException | BufferUnderflowException | NegativeArraySizeException e) {
+            log.warn("Ignoring invalid snapshot {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    // ==================== Write ====================
+
+    /**
+     * Write the snapshot to a temp file and move it into place
+     */
+    public void write(String path) throws IOException {
+        Path file = Paths.get(path);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileOutputStream fileOut = new FileOutputStream(tmp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(fileOut, new CRC32());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(storageVersion);
+            out.writeInt(nextFid);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                byte[] id = entry.registrationId.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(entry.fid);
+                out.writeShort(id.length);
+                out.write(id);
+                out.writeInt(entry.template.length);
+            }
+            for (Entry entry : entries) {
+                out.write(entry.template);
+            }
+            out.flush();
+
+            // Trailer goes straight to the file so it is not part of its own checksum
+            int crc = (int) checked.getChecksum().getValue();
+            fileOut.write(ByteBuffer.allocate(4).putInt(crc).array());
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,177 @@
+package com.fingerprint.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RecentMatchCache - Hot cache of the most recently identified templates
+ *
+ * In attendance use the same people scan repeatedly, so a capture is first
+ * 1:1 matched against these few templates before paying for a full 1:N
+ * DBIdentify. Entries are evicted least-recently-used and after a TTL.
+ */
+public class RecentMatchCache {
+    private final int capacity;
+    private final long ttlMs;
+    private final int threshold;
+
+    // Access-ordered, so iteration runs from least to most recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong hitNanos = new AtomicLong();
+    private final AtomicLong missProbeNanos = new AtomicLong();
+    private final AtomicLong fullIdentifyNanos = new AtomicLong();
+    private final AtomicLong fullIdentifyCount = new AtomicLong();
+
+    public RecentMatchCache(int capacity, long ttlMs, int threshold) {
+        this.capacity = Math.max(0, capacity);
+        this.ttlMs = ttlMs;
+        this.threshold = threshold;
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Check whether this cache was built with the given settings
+     */
+    public boolean hasSettings(int capacity, long ttlMs, int threshold) {
+        return this.capacity == Math.max(0, capacity) && this.ttlMs == ttlMs && this.threshold == threshold;
+    }
+
+    /**
+     * Cached template for a recently identified registration
+     */
+    public static class Entry {
+        public final String registrationId;
+        public final byte[] template;
+        private volatile long lastHitAt;
+
+        Entry(String registrationId, byte[] template, long now) {
+            this.registrationId = registrationId;
+            this.template = template;
+            this.lastHitAt = now;
+        }
+    }
+
+    /**
+     * Get the live entries to probe, most recently used first. Expired entries are dropped.
+     */
+    public synchronized List<Entry> candidates() {
+        List<Entry> result = new ArrayList<>(entries.size());
+        long now = System.currentTimeMillis();
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (ttlMs > 0 && now - entry.lastHitAt > ttlMs) {
+                it.remove();
+            } else {
+                result.add(entry);
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    public synchronized void put(String registrationId, byte[] template) {
+        if (!isEnabled() || template == null) return;
+        entries.put(registrationId, new Entry(registrationId, template, System.currentTimeMillis()));
+        if (entries.size() > capacity) {
+            Iterator<String> eldest = entries.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Mark an entry as used so it stays hot (refreshes LRU order and TTL)
+     */
+    public synchronized void touch(String registrationId) {
+        Entry entry = entries.get(registrationId);
+        if (entry != null) {
+            entry.lastHitAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized void remove(String registrationId) {
+        entries.remove(registrationId);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // ==================== Metrics ====================
+
+    public void recordHit(long nanos) {
+        hits.incrementAndGet();
+        hitNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Record a miss: the time spent probing the cache and the full 1:N identify that followed
+     */
+    public void recordMiss(long probeNanos, long identifyNanos) {
+        misses.incrementAndGet();
+        missProbeNanos.addAndGet(probeNanos);
+        recordFullIdentify(identifyNanos);
+    }
+
+    public void recordFullIdentify(long nanos) {
+        fullIdentifyNanos.addAndGet(nanos);
+        fullIdentifyCount.incrementAndGet();
+    }
+
+    public static class Stats {
+        public boolean enabled;
+        public int size;
+        public int capacity;
+        public long ttlSeconds;
+        public int threshold;
+        public long hits;
+        public long misses;
+        public double hitRate;
+        public double avgHitMicros;
+        public double avgMissProbeMicros;
+        public double avgFullIdentifyMicros;
+        public double estimatedSavedMillis;
+    }
+
+    public Stats getStats() {
+        Stats s = new Stats();
+        s.enabled = isEnabled();
+        s.size = size();
+        s.capacity = capacity;
+        s.ttlSeconds = ttlMs / 1000;
+        s.threshold = threshold;
+        s.hits = hits.get();
+        s.misses = misses.get();
+        long total = s.hits + s.misses;
+        s.hitRate = total > 0 ? (double) s.hits / total : 0.0;
+        s.avgHitMicros = s.hits > 0 ? hitNanos.get() / 1000.0 / s.hits : 0.0;
+        s.avgMissProbeMicros = s.misses > 0 ? missProbeNanos.get() / 1000.0 / s.misses : 0.0;
+        long fullCount = fullIdentifyCount.get();
+        s.avgFullIdentifyMicros = fullCount > 0 ? fullIdentifyNanos.get() / 1000.0 / fullCount : 0.0;
+        // Each hit avoided one full identify; each miss paid an extra probe
+        double savedMicros = s.hits * (s.avgFullIdentifyMicros - s.avgHitMicros)
+                - s.misses * s.avgMissProbeMicros;
+        s.estimatedSavedMillis = savedMicros / 1000.0;
+        return s;
+    }
+}
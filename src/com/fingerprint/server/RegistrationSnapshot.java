@@ -0,0 +1,107 @@
+package com.fingerprint.server;
+
+import com.fingerprint.model.Registration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * RegistrationSnapshot - Immutable, versioned view of all registrations
+ *
+ * StorageService publishes a new snapshot through a single volatile reference on every
+ * write, so readers get a consistent list and indexes without locking or copying.
+ * Writers copy the current snapshot into the next version (writes are rare and already
+ * rewrite fingerprints.json in full).
+ */
+public final class RegistrationSnapshot {
+    static final RegistrationSnapshot EMPTY = new RegistrationSnapshot(0, new ArrayList<>());
+
+    private final long version;
+    private final List<Registration> registrations;
+    private final Map<String, Registration> byId;
+    private final Map<String, Registration> byName;
+
+    private RegistrationSnapshot(long version, List<Registration> registrations) {
+        this.version = version;
+        this.registrations = Collections.unmodifiableList(registrations);
+
+        Map<String, Registration> ids = new HashMap<>(registrations.size() * 2);
+        Map<String, Registration> names = new HashMap<>(registrations.size() * 2);
+        for (Registration reg : registrations) {
+            ids.put(reg.getId(), reg);
+            if (reg.getName() != null) {
+                // First registration wins, matching the old list scan
+                names.putIfAbsent(normalizeName(reg.getName()), reg);
+            }
+        }
+        this.byId = ids;
+        this.byName = names;
+    }
+
+    static RegistrationSnapshot of(long version, List<Registration> registrations) {
+        return new RegistrationSnapshot(version, new ArrayList<>(registrations));
+    }
+
+    /**
+     * Next version with a registration appended
+     */
+    RegistrationSnapshot withAdded(Registration registration) {
+        List<Registration> next = new ArrayList<>(registrations.size() + 1);
+        next.addAll(registrations);
+        next.add(registration);
+        return new RegistrationSnapshot(version + 1, next);
+    }
+
+    /**
+     * Next version without the given registration, or this snapshot if it does not exist
+     */
+    RegistrationSnapshot withRemoved(String id) {
+        if (!byId.containsKey(id)) {
+            return this;
+        }
+        List<Registration> next = new ArrayList<>(registrations.size());
+        for (Registration reg : registrations) {
+            if (!reg.getId().equals(id)) {
+                next.add(reg);
+            }
+        }
+        return new RegistrationSnapshot(version + 1, next);
+    }
+
+    static String normalizeName(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    // ==================== Reads ====================
+
+    /**
+     * Monotonic version, incremented by every write
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Registrations in insertion order (read-only)
+     */
+    public List<Registration> getRegistrations() {
+        return registrations;
+    }
+
+    public Optional<Registration> getById(String id) {
+        return id == null ? Optional.empty() : Optional.ofNullable(byId.get(id));
+    }
+
+    public Optional<Registration> getByName(String name) {
+        return name == null ? Optional.empty() : Optional.ofNullable(byName.get(normalizeName(name)));
+    }
+
+    public int size() {
+        return registrations.size();
+    }
+}
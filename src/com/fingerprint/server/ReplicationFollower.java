@@ -0,0 +1,373 @@
+package com.fingerprint.server;
+
+import com.fingerprint.model.ExportData;
+import com.fingerprint.model.Registration;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReplicationFollower - Keeps this server's registrations identical to a leader's
+ *
+ * Long-polls the leader's GET /api/replication/changes and applies each add (with its
+ * template) and delete in sequence order, to storage and the matcher, keeping the leader's
+ * registration ids. The last applied leader sequence is saved in data/replication.json, so
+ * a restart resumes where it stopped. When there is no usable sequence (first start, a
+ * different leader, or the leader no longer has the history) the follower resyncs: it lists
+ * the leader's registrations, deletes local ones the leader does not have, exports the
+ * missing ones, and continues from the listing's X-Change-Seq. Replaying changes that the
+ * listing already contained is harmless, since adds of known ids and deletes of unknown
+ * ids are skipped.
+ */
+public class ReplicationFollower {
+    private static final Logger log = LoggerFactory.getLogger(ReplicationFollower.class);
+
+    private static final String STATE_FILE = "replication.json";
+    private static final int WAIT_SECONDS = 25;
+
+    public enum State { WAITING_FOR_MATCHER, RESYNCING, STREAMING, RETRYING, STOPPED }
+
+    private final String leaderUrl;
+    private final String leaderKey;
+    private final String name;
+    private final StorageService storageService;
+    private final FingerprintService fingerprintService;
+    private final Gson gson = new GsonBuilder().create();
+    private final Path statePath;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private volatile State state = State.WAITING_FOR_MATCHER;
+    private volatile long lastAppliedSeq = -1;
+    private volatile long leaderSeq = -1;
+    private volatile long behindSince = 0;
+    private volatile long lastContactAt = 0;
+    private volatile String lastError;
+
+    // Metrics
+    private final AtomicLong appliedAdds = new AtomicLong();
+    private final AtomicLong appliedDeletes = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * @param name How this follower is listed in the leader's status
+     */
+    public ReplicationFollower(String leaderUrl, String leaderKey, String name,
+                               StorageService storageService, FingerprintService fingerprintService) {
+        this.leaderUrl = leaderUrl.endsWith("/") ? leaderUrl.substring(0, leaderUrl.length() - 1) : leaderUrl;
+        this.leaderKey = leaderKey;
+        this.name = name;
+        this.storageService = storageService;
+        this.fingerprintService = fingerprintService;
+        this.statePath = Paths.get(storageService.getDataFile(STATE_FILE));
+        this.thread = new Thread(this::run, "ReplicationThread");
+        this.thread.setDaemon(true);
+    }
+
+    public String getLeaderUrl() {
+        return leaderUrl;
+    }
+
+    public void start() {
+        loadState();
+        thread.start();
+        log.info("Following {} from seq {}", leaderUrl, lastAppliedSeq >= 0 ? lastAppliedSeq : "(resync)");
+    }
+
+    public void stop() {
+        running = false;
+        state = State.STOPPED;
+        thread.interrupt();
+    }
+
+    private void run() {
+        long backoffMs = 1000;
+        while (running) {
+            try {
+                if (!fingerprintService.isInitialized()) {
+                    state = State.WAITING_FOR_MATCHER;
+                    Thread.sleep(500);
+                    continue;
+                }
+                if (lastAppliedSeq < 0) {
+                    resync();
+                }
+                pollOnce();
+                backoffMs = 1000;
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException | RuntimeException e) {
+                errors.incrementAndGet();
+                lastError = e.getMessage();
+                state = State.RETRYING;
+                log.warn("Replication from {} failed: {}, retrying in {}ms", leaderUrl, e.getMessage(), backoffMs);
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                backoffMs = Math.min(30000, backoffMs * 2);
+            }
+        }
+    }
+
+    /**
+     * Fetch and apply one page of changes (waiting on the leader if there are none)
+     */
+    private void pollOnce() throws IOException {
+        JsonObject page = getJson("/api/replication/changes?since=" + lastAppliedSeq + "&wait=" + WAIT_SECONDS
+                + "&follower=" + URLEncoder.encode(name, "UTF-8")).getAsJsonObject();
+        if (page.get("resync").getAsBoolean()) {
+            log.warn("Leader no longer has changes after seq {}, resyncing", lastAppliedSeq);
+            lastAppliedSeq = -1;
+            return;
+        }
+        state = State.STREAMING;
+        lastError = null;
+        leaderSeq = page.get("latestSeq").getAsLong();
+
+        JsonArray changes = page.getAsJsonArray("changes");
+        for (JsonElement element : changes) {
+            JsonObject change = element.getAsJsonObject();
+            long seq = change.get("seq").getAsLong();
+            String type = change.get("type").getAsString();
+            String id = change.get("id").getAsString();
+            if (ChangeFeed.ADD.equals(type)) {
+                Registration registration = gson.fromJson(change.get("registration"), Registration.class);
+                JsonElement template = change.get("templateBase64");
+                if (template == null || template.isJsonNull()) {
+                    // Deleted on the leader before this page was served; its delete follows
+                    skipped.incrementAndGet();
+                } else {
+                    applyAdd(registration, template.getAsString());
+                }
+            } else if (ChangeFeed.DELETE.equals(type)) {
+                applyDelete(id);
+            }
+            lastAppliedSeq = seq;
+        }
+        if (changes.size() > 0) {
+            saveState();
+        }
+        updateLag();
+    }
+
+    private void applyAdd(Registration registration, String templateBase64) {
+        if (storageService.getRegistrationById(registration.getId()).isPresent()) {
+            skipped.incrementAndGet();
+            return;
+        }
+        if (!fingerprintService.applyReplicatedAdd(registration, templateBase64)) {
+            throw new IllegalStateException("Could not store replicated registration " + registration.getId());
+        }
+        appliedAdds.incrementAndGet();
+    }
+
+    private void applyDelete(String id) {
+        if (fingerprintService.deleteRegistration(id)) {
+            appliedDeletes.incrementAndGet();
+        } else {
+            skipped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Make local registrations match a full listing of the leader, then continue from that listing
+     */
+    private void resync() throws IOException {
+        state = State.RESYNCING;
+        resyncs.incrementAndGet();
+        long start = System.currentTimeMillis();
+
+        HttpURLConnection conn = open("/api/fingerprints", 30000);
+        long listingSeq = Long.parseLong(conn.getHeaderField("X-Change-Seq"));
+        JsonArray listing = JsonParser.parseString(readBody(conn)).getAsJsonArray();
+
+        Set<String> leaderIds = new HashSet<>();
+        List<Registration> missing = new ArrayList<>();
+        for (JsonElement element : listing) {
+            Registration registration = gson.fromJson(element, Registration.class);
+            leaderIds.add(registration.getId());
+            if (!storageService.getRegistrationById(registration.getId()).isPresent()) {
+                missing.add(registration);
+            }
+        }
+
+        int removed = 0;
+        for (Registration local : new ArrayList<>(storageService.getAllRegistrations())) {
+            if (!leaderIds.contains(local.getId())) {
+                applyDelete(local.getId());
+                removed++;
+            }
+        }
+        for (Registration registration : missing) {
+            JsonElement export = getJsonOrNull("/api/fingerprints/"
+                    + URLEncoder.encode(registration.getId(), "UTF-8") + "/export");
+            if (export == null) {
+                // Deleted on the leader since the listing
+                continue;
+            }
+            ExportData.FingerprintData data = gson.fromJson(export, ExportData.class).getFingerprint();
+            applyAdd(registration, data.getTemplateBase64());
+        }
+
+        lastAppliedSeq = listingSeq;
+        leaderSeq = Math.max(leaderSeq, listingSeq);
+        saveState();
+        state = State.STREAMING;
+        log.info("Resynced from {} in {}ms: {} added, {} removed, continuing from seq {}",
+                leaderUrl, System.currentTimeMillis() - start, missing.size(), removed, listingSeq);
+    }
+
+    private void updateLag() {
+        if (lastAppliedSeq >= leaderSeq) {
+            behindSince = 0;
+        } else if (behindSince == 0) {
+            behindSince = System.currentTimeMillis();
+        }
+    }
+
+    // ==================== HTTP ====================
+
+    private HttpURLConnection open(String path, int readTimeoutMs) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) URI.create(leaderUrl + path).toURL().openConnection();
+        conn.setRequestMethod("GET");
+        conn.setRequestProperty("Accept", "application/json");
+        if (leaderKey != null && !leaderKey.isEmpty()) {
+            conn.setRequestProperty("Authorization", "Bearer " + leaderKey);
+        }
+        conn.setConnectTimeout(5000);
+        conn.setReadTimeout(readTimeoutMs);
+        int status = conn.getResponseCode();
+        lastContactAt = System.currentTimeMillis();
+        if (status != 200 && status != 404) {
+            conn.disconnect();
+            throw new IOException("GET " + path + " returned " + status);
+        }
+        return conn;
+    }
+
+    private JsonElement getJson(String path) throws IOException {
+        return JsonParser.parseString(readBody(open(path, (WAIT_SECONDS + 15) * 1000)));
+    }
+
+    private JsonElement getJsonOrNull(String path) throws IOException {
+        HttpURLConnection conn = open(path, 30000);
+        if (conn.getResponseCode() == 404) {
+            conn.disconnect();
+            return null;
+        }
+        return JsonParser.parseString(readBody(conn));
+    }
+
+    private static String readBody(HttpURLConnection conn) throws IOException {
+        try (InputStream in = conn.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    // ==================== State ====================
+
+    private static class SavedState {
+        String leaderUrl;
+        long lastAppliedSeq;
+        String savedAt;
+    }
+
+    private void loadState() {
+        if (!Files.exists(statePath)) {
+            return;
+        }
+        try {
+            SavedState saved = gson.fromJson(new String(Files.readAllBytes(statePath), StandardCharsets.UTF_8),
+                    SavedState.class);
+            if (saved != null && leaderUrl.equals(saved.leaderUrl)) {
+                lastAppliedSeq = saved.lastAppliedSeq;
+            } else {
+                log.info("Replication state is for another leader, resyncing");
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Error reading replication state, resyncing: {}", e.getMessage());
+        }
+    }
+
+    private void saveState() {
+        SavedState saved = new SavedState();
+        saved.leaderUrl = leaderUrl;
+        saved.lastAppliedSeq = lastAppliedSeq;
+        saved.savedAt = Instant.now().toString();
+        Path tmp = statePath.resolveSibling(STATE_FILE + ".tmp");
+        try {
+            Files.write(tmp, gson.toJson(saved).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, statePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The next start replays from the older sequence, which is harmless
+            log.error("Error saving replication state: {}", e.getMessage());
+        }
+    }
+
+    // ==================== Metrics ====================
+
+    public static class Stats {
+        public String role = "follower";
+        public String leaderUrl;
+        public String state;
+        public long lastAppliedSeq;
+        public long leaderSeq;
+        public long lagChanges;
+        public long lagSeconds;
+        public String lastContactAt;
+        public String lastError;
+        public long appliedAdds;
+        public long appliedDeletes;
+        public long skipped;
+        public long resyncs;
+        public long errors;
+    }
+
+    public Stats getStats() {
+        Stats s = new Stats();
+        s.leaderUrl = leaderUrl;
+        s.state = state.name().toLowerCase();
+        s.lastAppliedSeq = lastAppliedSeq;
+        s.leaderSeq = leaderSeq;
+        s.lagChanges = s.leaderSeq >= 0 && s.lastAppliedSeq >= 0 ? Math.max(0, s.leaderSeq - s.lastAppliedSeq) : 0;
+        long behind = behindSince;
+        s.lagSeconds = behind > 0 ? (System.currentTimeMillis() - behind) / 1000 : 0;
+        long contact = lastContactAt;
+        s.lastContactAt = contact > 0 ? Instant.ofEpochMilli(contact).toString() : null;
+        s.lastError = lastError;
+        s.appliedAdds = appliedAdds.get();
+        s.appliedDeletes = appliedDeletes.get();
+        s.skipped = skipped.get();
+        s.resyncs = resyncs.get();
+        s.errors = errors.get();
+        return s;
+    }
+}
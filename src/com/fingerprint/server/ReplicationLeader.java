@@ -0,0 +1,85 @@
+package com.fingerprint.server;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ReplicationLeader - Serves the change feed to follower servers
+ *
+ * Pages are those of GET /api/changes, with each add carrying its template (templateBase64)
+ * so a follower can apply it without a second request. A template is null if the
+ * registration was deleted after the add; the delete follows later in the feed. Every
+ * server can lead; the followers polling it are tracked by name for lag reporting.
+ */
+public class ReplicationLeader {
+    private final StorageService storageService;
+    private final Gson gson = new GsonBuilder().create();
+    private final Map<String, FollowerPosition> followers = new ConcurrentHashMap<>();
+
+    private static class FollowerPosition {
+        volatile long since;
+        volatile long polls;
+        volatile long lastPollAt;
+    }
+
+    public ReplicationLeader(StorageService storageService) {
+        this.storageService = storageService;
+    }
+
+    /**
+     * Changes after {@code since} for the named follower, waiting up to {@code waitMs} if there are none
+     */
+    public JsonObject read(String follower, long since, int limit, long waitMs) throws InterruptedException {
+        FollowerPosition position = followers.computeIfAbsent(follower, k -> new FollowerPosition());
+        position.since = since;
+        position.polls++;
+        position.lastPollAt = System.currentTimeMillis();
+
+        ChangeFeed.Page page = storageService.getChangeFeed().read(since, limit, waitMs);
+        JsonObject json = gson.toJsonTree(page).getAsJsonObject();
+        for (JsonElement element : json.getAsJsonArray("changes")) {
+            JsonObject change = element.getAsJsonObject();
+            if (ChangeFeed.ADD.equals(change.get("type").getAsString())) {
+                change.addProperty("templateBase64", storageService.getTemplateBase64(change.get("id").getAsString()));
+            }
+        }
+        return json;
+    }
+
+    // ==================== Metrics ====================
+
+    public static class FollowerStats {
+        public long lastAppliedSeq;
+        public long lagChanges;
+        public long polls;
+        public String lastPollAt;
+    }
+
+    public static class Stats {
+        public String role = "leader";
+        public long latestSeq;
+        public Map<String, FollowerStats> followers = new TreeMap<>();
+    }
+
+    public Stats getStats() {
+        Stats s = new Stats();
+        s.latestSeq = storageService.getChangeFeed().getLatestSeq();
+        for (Map.Entry<String, FollowerPosition> entry : followers.entrySet()) {
+            FollowerPosition position = entry.getValue();
+            FollowerStats f = new FollowerStats();
+            f.lastAppliedSeq = position.since;
+            f.lagChanges = Math.max(0, s.latestSeq - position.since);
+            f.polls = position.polls;
+            f.lastPollAt = Instant.ofEpochMilli(position.lastPollAt).toString();
+            s.followers.put(entry.getKey(), f);
+        }
+        return s;
+    }
+}
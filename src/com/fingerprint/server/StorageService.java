@@ -5,34 +5,55 @@ import com.fingerprint.model.Registration;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.lang.reflect.Type;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * StorageService - JSON file-based persistence for fingerprints and config
  */
 public class StorageService {
+    private static final Logger log = LoggerFactory.getLogger(StorageService.class);
+
     private static final String DATA_DIR = "./data";
     private static final String FINGERPRINTS_DIR = DATA_DIR + "/fingerprints";
     private static final String FINGERPRINTS_FILE = DATA_DIR + "/fingerprints.json";
+    private static final String CHANGES_FILE = DATA_DIR + "/changes.jsonl";
     private static final String CONFIG_FILE = "./config.json"; // Top level
 
     private final Gson gson;
-    private List<Registration> registrations;
-    private Config config;
+    private final TemplateStore templateStore;
+    // Replaced (never mutated) by writers; readers use whatever snapshot they see
+    private volatile RegistrationSnapshot snapshot;
+    // Replaced as a whole on update or reload
+    private volatile Config config;
+    // Adds and deletes by sequence (= snapshot version)
+    private final ChangeFeed changeFeed;
+    // Inline templates (older fingerprints.json format) that could not be moved to the template
+    // store; served from here and written back inline until a later start moves them
+    private final Map<String, String> inlineTemplates = new ConcurrentHashMap<>();
 
     public StorageService() {
         this.gson = new GsonBuilder().setPrettyPrinting().create();
-        this.registrations = new ArrayList<>();
+        this.templateStore = new TemplateStore(FINGERPRINTS_DIR);
+        this.snapshot = RegistrationSnapshot.EMPTY;
         this.config = new Config();
         
         ensureDataDirectory();
         loadAll();
+        this.changeFeed = new ChangeFeed(Paths.get(CHANGES_FILE),
+            EnvLoader.getInt("CHANGE_FEED_SIZE", 10000),
+            EnvLoader.getInt("CHANGE_JOURNAL_MAX", 100000),
+            snapshot.getVersion());
     }
 
     // ==================== Directory Management ====================
@@ -41,20 +62,27 @@ public class StorageService {
         File dataDir = new File(DATA_DIR);
         if (!dataDir.exists()) {
             if (dataDir.mkdirs()) {
-                System.out.println("[StorageService] Created data directory: " + dataDir.getAbsolutePath());
+                log.info("Created data directory: {}", dataDir.getAbsolutePath());
             } else {
-                System.err.println("[StorageService] Failed to create data directory!");
+                log.error("Failed to create data directory!");
             }
         }
         
         File fingerprintsDir = new File(FINGERPRINTS_DIR);
         if (!fingerprintsDir.exists()) {
             if (fingerprintsDir.mkdirs()) {
-                System.out.println("[StorageService] Created fingerprints directory: " + fingerprintsDir.getAbsolutePath());
+                log.info("Created fingerprints directory: {}", fingerprintsDir.getAbsolutePath());
             }
         }
     }
 
+    /**
+     * Path of a file directly under the data directory
+     */
+    public String getDataFile(String fileName) {
+        return DATA_DIR + "/" + fileName;
+    }
+
     /**
      * Get the directory path for a specific fingerprint's data
      */
@@ -83,9 +111,9 @@ public class StorageService {
         
         try (Writer writer = new FileWriter(userDetailFile)) {
             gson.toJson(registration, writer);
-            System.out.println("[StorageService] Saved user_detail.json for: " + registration.getId());
+            log.debug("Saved user_detail.json for: {}", registration.getId());
         } catch (IOException e) {
-            System.err.println("[StorageService] Error saving user_detail.json: " + e.getMessage());
+            log.error("Error saving user_detail.json: {}", e.getMessage());
         }
     }
 
@@ -99,30 +127,51 @@ public class StorageService {
     private void loadRegistrations() {
         File file = new File(FINGERPRINTS_FILE);
         if (!file.exists()) {
-            System.out.println("[StorageService] No fingerprints file found, starting fresh");
-            registrations = new ArrayList<>();
-            saveRegistrations();
+            log.info("No fingerprints file found, starting fresh");
+            snapshot = RegistrationSnapshot.EMPTY;
+            saveRegistrations(snapshot);
             return;
         }
 
         try (Reader reader = new FileReader(file)) {
-            FingerprintsWrapper wrapper = gson.fromJson(reader, FingerprintsWrapper.class);
+            StoredRegistrationsWrapper wrapper = gson.fromJson(reader, StoredRegistrationsWrapper.class);
             if (wrapper != null && wrapper.registrations != null) {
-                registrations = wrapper.registrations;
-                System.out.println("[StorageService] Loaded " + registrations.size() + " registrations");
+                List<Registration> loaded = new ArrayList<>(wrapper.registrations.size());
+                int migrated = 0;
+                for (StoredRegistration stored : wrapper.registrations) {
+                    if (stored.templateBase64 != null) {
+                        if (migrateTemplate(stored)) {
+                            migrated++;
+                        } else {
+                            inlineTemplates.put(stored.getId(), stored.templateBase64);
+                        }
+                    }
+                    loaded.add(stored.toRegistration());
+                }
+                snapshot = RegistrationSnapshot.of(wrapper.version, loaded);
+                log.info("Loaded {} registrations", snapshot.size());
+                if (migrated > 0) {
+                    // Rewrite without the moved templates; any that failed stay inline
+                    saveRegistrations(snapshot);
+                    log.info("Moved {} templates to per-registration template files", migrated);
+                }
+                if (!inlineTemplates.isEmpty()) {
+                    log.warn("{} templates could not be moved to template files and stay in {}; retried at the next start",
+                            inlineTemplates.size(), FINGERPRINTS_FILE);
+                }
             } else {
-                registrations = new ArrayList<>();
+                snapshot = RegistrationSnapshot.EMPTY;
             }
         } catch (Exception e) {
-            System.err.println("[StorageService] Error loading registrations: " + e.getMessage());
-            registrations = new ArrayList<>();
+            log.error("Error loading registrations: {}", e.getMessage());
+            snapshot = RegistrationSnapshot.EMPTY;
         }
     }
 
     private void loadConfig() {
         File file = new File(CONFIG_FILE);
         if (!file.exists()) {
-            System.out.println("[StorageService] No config file found, using defaults");
+            log.info("No config file found, using defaults");
             config = new Config();
             saveConfig();
             return;
@@ -133,30 +182,90 @@ public class StorageService {
             if (config == null) {
                 config = new Config();
             }
-            System.out.println("[StorageService] Loaded config: " + config);
+            log.info("Loaded config: {}", config);
         } catch (Exception e) {
-            System.err.println("[StorageService] Error loading config: " + e.getMessage());
+            log.error("Error loading config: {}", e.getMessage());
             config = new Config();
         }
     }
 
+    /**
+     * Move an inline template (older fingerprints.json format) into the template store
+     */
+    private boolean migrateTemplate(StoredRegistration stored) {
+        try {
+            if (!templateStore.exists(stored.getId())) {
+                templateStore.write(stored.getId(), stored.templateBase64);
+            }
+            saveUserDetail(stored.toRegistration());
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Error migrating template for {}: {}", stored.getId(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Re-read config.json after an external edit
+     * @return true if the file content differs from the current config
+     */
+    public synchronized boolean reloadConfig() {
+        File file = new File(CONFIG_FILE);
+        if (!file.exists()) {
+            return false;
+        }
+        try (Reader reader = new FileReader(file)) {
+            Config next = gson.fromJson(reader, Config.class);
+            if (next == null || gson.toJson(next).equals(gson.toJson(config))) {
+                return false;
+            }
+            config = next;
+            log.info("Reloaded config: {}", config);
+            return true;
+        } catch (Exception e) {
+            log.error("Error reloading config, keeping current: {}", e.getMessage());
+            return false;
+        }
+    }
+
     // ==================== Save Operations ====================
 
-    private synchronized void saveRegistrations() {
+    private synchronized void saveRegistrations(RegistrationSnapshot current) {
+        FlightEvents.StorageFlush event = new FlightEvents.StorageFlush();
+        event.begin();
         try (Writer writer = new FileWriter(FINGERPRINTS_FILE)) {
             FingerprintsWrapper wrapper = new FingerprintsWrapper();
-            wrapper.registrations = registrations;
+            wrapper.version = current.getVersion();
+            wrapper.registrations = inlineTemplates.isEmpty() ? current.getRegistrations() : withInlineTemplates(current);
             gson.toJson(wrapper, writer);
         } catch (IOException e) {
-            System.err.println("[StorageService] Error saving registrations: " + e.getMessage());
+            log.error("Error saving registrations: {}", e.getMessage());
+        }
+        if (event.shouldCommit()) {
+            event.file = "fingerprints.json";
+            event.registrations = current.getRegistrations().size();
+            event.bytes = new File(FINGERPRINTS_FILE).length();
+            event.commit();
         }
     }
 
+    /**
+     * Registrations to write, with the templates that are still inline put back on their records
+     */
+    private List<Registration> withInlineTemplates(RegistrationSnapshot current) {
+        List<Registration> registrations = new ArrayList<>(current.size());
+        for (Registration registration : current.getRegistrations()) {
+            String templateBase64 = inlineTemplates.get(registration.getId());
+            registrations.add(templateBase64 != null ? StoredRegistration.of(registration, templateBase64) : registration);
+        }
+        return registrations;
+    }
+
     public synchronized void saveConfig() {
         try (Writer writer = new FileWriter(CONFIG_FILE)) {
             gson.toJson(config, writer);
         } catch (IOException e) {
-            System.err.println("[StorageService] Error saving config: " + e.getMessage());
+            log.error("Error saving config: {}", e.getMessage());
         }
     }
 
@@ -166,91 +275,172 @@ public class StorageService {
      * Check if a name already exists (case-insensitive)
      */
     public boolean isNameExists(String name) {
-        if (name == null) return false;
-        return registrations.stream()
-                .anyMatch(r -> r.getName().equalsIgnoreCase(name));
+        return snapshot.getByName(name).isPresent();
     }
 
     /**
      * Get existing registration by name (case-insensitive)
      */
     public Optional<Registration> getRegistrationByName(String name) {
-        if (name == null) return Optional.empty();
-        return registrations.stream()
-                .filter(r -> r.getName().equalsIgnoreCase(name))
-                .findFirst();
+        return snapshot.getByName(name);
+    }
+
+    /**
+     * Publish the next snapshot, persist it and record the change. Callers hold the StorageService lock.
+     */
+    private void publish(RegistrationSnapshot next, String changeType, Registration registration) {
+        snapshot = next;
+        saveRegistrations(next);
+        changeFeed.append(next.getVersion(), changeType, registration);
+    }
+
+    /**
+     * Write the template before the metadata is published, so readers never see a registration without one
+     */
+    private boolean storeTemplate(String id, String templateBase64) {
+        FlightEvents.StorageFlush event = new FlightEvents.StorageFlush();
+        event.begin();
+        try {
+            templateStore.write(id, templateBase64);
+            return true;
+        } catch (IOException e) {
+            log.error("Error saving template for {}: {}", id, e.getMessage());
+            return false;
+        } finally {
+            if (event.shouldCommit()) {
+                event.file = "template";
+                event.registrations = 1;
+                event.bytes = templateBase64 != null ? templateBase64.length() : 0;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Load a registration's template from the template store (null if missing)
+     */
+    public String getTemplateBase64(String id) {
+        FlightEvents.StorageLookup event = new FlightEvents.StorageLookup();
+        event.begin();
+        String templateBase64 = templateStore.read(id);
+        if (templateBase64 == null) {
+            templateBase64 = inlineTemplates.get(id);
+        }
+        if (event.shouldCommit()) {
+            event.registrationId = id;
+            event.found = templateBase64 != null;
+            event.bytes = templateBase64 != null ? templateBase64.length() : 0;
+            event.commit();
+        }
+        return templateBase64;
     }
 
     public synchronized String addRegistration(String name, String role, String templateBase64) {
         // Check for duplicate name (case-insensitive)
         if (isNameExists(name)) {
-            System.out.println("[StorageService] Duplicate name rejected: " + name);
+            log.info("Duplicate name rejected: {}", name);
             return null;
         }
         
         String id = UUID.randomUUID().toString();
-        Registration registration = new Registration(id, name, role, templateBase64);
-        registrations.add(registration);
-        saveRegistrations();
+        if (!storeTemplate(id, templateBase64)) {
+            return null;
+        }
+        Registration registration = new Registration(id, name, role);
+        publish(snapshot.withAdded(registration), ChangeFeed.ADD, registration);
         saveUserDetail(registration);
-        System.out.println("[StorageService] Added registration: " + registration);
+        log.info("Added registration: {}", registration);
         return id;
     }
 
-    public synchronized String addRegistrationWithPregeneratedId(String id, String name, String role, String templateBase64) {
+    public synchronized String addRegistrationWithPregeneratedId(String id, String name, String role,
+                                                                 List<String> groups, String templateBase64) {
         // Check for duplicate name (case-insensitive)
         if (isNameExists(name)) {
-            System.out.println("[StorageService] Duplicate name rejected: " + name);
+            log.info("Duplicate name rejected: {}", name);
             return null;
         }
         
-        Registration registration = new Registration(id, name, role, templateBase64);
-        registrations.add(registration);
-        saveRegistrations();
+        if (!storeTemplate(id, templateBase64)) {
+            return null;
+        }
+        Registration registration = new Registration(id, name, role);
+        registration.setGroups(groups);
+        publish(snapshot.withAdded(registration), ChangeFeed.ADD, registration);
         saveUserDetail(registration);
-        System.out.println("[StorageService] Added registration with pre-generated ID: " + registration);
+        log.info("Added registration with pre-generated ID: {}", registration);
         return id;
     }
 
-    public synchronized Registration addRegistrationWithId(String id, String name, String role, 
+    public synchronized Registration addRegistrationWithId(String id, String name, String role, List<String> groups,
                                                            String templateBase64, String createdAt) {
+        // The id names the registration's directory, so only UUIDs are accepted from callers
+        if (!TemplateStore.isValidId(id)) {
+            log.warn("Invalid registration id rejected: {}", id);
+            return null;
+        }
         // Check for duplicate name (case-insensitive)
         if (isNameExists(name)) {
-            System.out.println("[StorageService] Duplicate name rejected: " + name);
+            log.info("Duplicate name rejected: {}", name);
             return null;
         }
         
-        Registration registration = new Registration(id, name, role, templateBase64);
+        if (!storeTemplate(id, templateBase64)) {
+            return null;
+        }
+        Registration registration = new Registration(id, name, role);
+        registration.setGroups(groups);
         if (createdAt != null) {
             registration.setCreatedAt(createdAt);
         }
-        registrations.add(registration);
-        saveRegistrations();
+        publish(snapshot.withAdded(registration), ChangeFeed.ADD, registration);
         saveUserDetail(registration);
-        System.out.println("[StorageService] Added registration with custom ID: " + registration);
+        log.info("Added registration with custom ID: {}", registration);
         return registration;
     }
 
+    /**
+     * All registrations in insertion order. The list is a read-only view of the current snapshot.
+     */
     public List<Registration> getAllRegistrations() {
-        return new ArrayList<>(registrations);
+        return snapshot.getRegistrations();
     }
 
     public Optional<Registration> getRegistrationById(String id) {
-        return registrations.stream()
-                .filter(r -> r.getId().equals(id))
-                .findFirst();
+        return snapshot.getById(id);
+    }
+
+    /**
+     * Current immutable snapshot, for callers that need several consistent reads
+     */
+    public RegistrationSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Monotonic registration version, incremented by every add or delete and persisted in fingerprints.json
+     */
+    public long getVersion() {
+        return snapshot.getVersion();
+    }
+
+    public ChangeFeed getChangeFeed() {
+        return changeFeed;
     }
 
     public synchronized boolean deleteRegistration(String id) {
-        boolean removed = registrations.removeIf(r -> r.getId().equals(id));
+        RegistrationSnapshot current = snapshot;
+        RegistrationSnapshot next = current.withRemoved(id);
+        boolean removed = next != current;
         if (removed) {
-            saveRegistrations();
+            inlineTemplates.remove(id);
+            publish(next, ChangeFeed.DELETE, current.getById(id).get());
             // Also delete the fingerprint directory
             File fpDir = new File(getFingerprintDir(id));
             if (fpDir.exists()) {
                 deleteDirectory(fpDir);
             }
-            System.out.println("[StorageService] Deleted registration: " + id);
+            log.info("Deleted registration: {}", id);
         }
         return removed;
     }
@@ -270,7 +460,7 @@ public class StorageService {
     }
 
     public int getRegistrationCount() {
-        return registrations.size();
+        return snapshot.size();
     }
 
     // ==================== Config Operations ====================
@@ -282,7 +472,7 @@ public class StorageService {
     public synchronized void updateConfig(Config newConfig) {
         this.config = newConfig;
         saveConfig();
-        System.out.println("[StorageService] Updated config: " + config);
+        log.info("Updated config: {}", config);
     }
 
     public int getServerPort() {
@@ -292,9 +482,40 @@ public class StorageService {
     // ==================== Helper Classes ====================
 
     private static class FingerprintsWrapper {
+        long version;
         List<Registration> registrations;
     }
 
+    /**
+     * Registration as read from disk; older files still carry the template inline
+     */
+    private static class StoredRegistration extends Registration {
+        String templateBase64;
+
+        static StoredRegistration of(Registration registration, String templateBase64) {
+            StoredRegistration stored = new StoredRegistration();
+            stored.setId(registration.getId());
+            stored.setName(registration.getName());
+            stored.setRole(registration.getRole());
+            stored.setGroups(registration.getGroups());
+            stored.setCreatedAt(registration.getCreatedAt());
+            stored.templateBase64 = templateBase64;
+            return stored;
+        }
+
+        Registration toRegistration() {
+            Registration reg = new Registration(getId(), getName(), getRole());
+            reg.setGroups(getGroups());
+            reg.setCreatedAt(getCreatedAt());
+            return reg;
+        }
+    }
+
+    private static class StoredRegistrationsWrapper {
+        long version;
+        List<StoredRegistration> registrations;
+    }
+
     // ==================== ID Generation ====================
 
     public String generateNewId() {
@@ -0,0 +1,96 @@
+package com.fingerprint.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * TemplateCache - Decoded templates by registration id, for 1:1 verification
+ *
+ * Verification matches a capture against one claimed registration, so the cost is reading
+ * and decoding that registration's template.b64. Decoded templates are kept here and evicted
+ * least-recently-used once the cache holds {@code capacity} entries.
+ */
+public class TemplateCache {
+    private final int capacity;
+
+    // Access-ordered; the eldest entry is dropped once over capacity
+    private final LinkedHashMap<String, byte[]> entries;
+
+    // Metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public TemplateCache(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                if (size() > TemplateCache.this.capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get a cached template, loading (and caching) it on a miss. Returns null if the loader does.
+     * The loader runs outside the cache lock, so a slow disk read does not block other lookups.
+     */
+    public byte[] get(String registrationId, Function<String, byte[]> loader) {
+        synchronized (this) {
+            byte[] template = entries.get(registrationId);
+            if (template != null) {
+                hits.incrementAndGet();
+                return template;
+            }
+        }
+        misses.incrementAndGet();
+        byte[] template = loader.apply(registrationId);
+        if (template != null && capacity > 0) {
+            synchronized (this) {
+                entries.put(registrationId, template);
+            }
+        }
+        return template;
+    }
+
+    public synchronized void remove(String registrationId) {
+        entries.remove(registrationId);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // ==================== Metrics ====================
+
+    public static class Stats {
+        public int size;
+        public int capacity;
+        public long hits;
+        public long misses;
+        public long evictions;
+        public double hitRate;
+    }
+
+    public Stats getStats() {
+        Stats s = new Stats();
+        s.size = size();
+        s.capacity = capacity;
+        s.hits = hits.get();
+        s.misses = misses.get();
+        s.evictions = evictions.get();
+        long total = s.hits + s.misses;
+        s.hitRate = total > 0 ? (double) s.hits / total : 0.0;
+        return s;
+    }
+}
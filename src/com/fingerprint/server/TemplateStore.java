@@ -0,0 +1,87 @@
+package com.fingerprint.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * TemplateStore - File-per-registration storage for fingerprint templates
+ *
+ * Templates live in {fingerprintsDir}/{id}/template.b64 as the SDK's Base64 text and are
+ * read only when needed (matcher load, export, duplicate checks), so the in-memory
+ * registration list carries metadata only.
+ */
+public class TemplateStore {
+    private static final Logger log = LoggerFactory.getLogger(TemplateStore.class);
+
+    private static final String TEMPLATE_FILE = "template.b64";
+
+    private final String fingerprintsDir;
+
+    public TemplateStore(String fingerprintsDir) {
+        this.fingerprintsDir = fingerprintsDir;
+    }
+
+    /**
+     * True for a registration id in canonical UUID form; anything else (such as "../x") must
+     * never become a path under the fingerprints directory
+     */
+    public static boolean isValidId(String id) {
+        if (id == null) {
+            return false;
+        }
+        try {
+            return UUID.fromString(id).toString().equalsIgnoreCase(id);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private Path templatePath(String id) {
+        if (!isValidId(id)) {
+            throw new IllegalArgumentException("Invalid registration id: " + id);
+        }
+        return Paths.get(fingerprintsDir, id, TEMPLATE_FILE);
+    }
+
+    /**
+     * Write a template atomically (temp file + rename) so readers never see a partial file
+     */
+    public void write(String id, String templateBase64) throws IOException {
+        Path path = templatePath(id);
+        Files.createDirectories(path.getParent());
+        Path tmp = path.resolveSibling(TEMPLATE_FILE + ".tmp");
+        Files.write(tmp, templateBase64.getBytes(StandardCharsets.US_ASCII));
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a template, or null if none is stored for this id
+     */
+    public String read(String id) {
+        if (!isValidId(id)) {
+            return null;
+        }
+        Path path = templatePath(id);
+        try {
+            if (!Files.exists(path)) {
+                return null;
+            }
+            return new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim();
+        } catch (IOException e) {
+            log.error("Error reading template for {}: {}", id, e.getMessage());
+            return null;
+        }
+    }
+
+    public boolean exists(String id) {
+        return isValidId(id) && Files.exists(templatePath(id));
+    }
+}
@@ -0,0 +1,47 @@
+package com.fingerprint.server;
+
+/**
+ * TokenBucket - Simple rate limiter allowing a steady rate with a short burst
+ *
+ * Tokens refill continuously at {@code ratePerSecond} up to {@code burst}; each
+ * request takes one token.
+ */
+public class TokenBucket {
+    private final double ratePerNano;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double ratePerSecond, int burst) {
+        this.ratePerNano = ratePerSecond / 1_000_000_000.0;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Take one token if available
+     * @return 0 if the request may proceed, otherwise milliseconds until a token is available
+     */
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerNano);
+        lastRefill = now;
+        if (tokens >= 1.0) {
+            tokens -= 1.0;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1.0 - tokens) / ratePerNano / 1_000_000.0));
+    }
+
+    /**
+     * True once the bucket has refilled to its burst, i.e. it is no different from a new one
+     */
+    public synchronized boolean isFull() {
+        return tokens + (System.nanoTime() - lastRefill) * ratePerNano >= burst;
+    }
+
+    public double getRatePerSecond() {
+        return ratePerNano * 1_000_000_000.0;
+    }
+}
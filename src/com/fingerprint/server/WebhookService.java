@@ -3,25 +3,54 @@ package com.fingerprint.server;
 import com.fingerprint.model.Registration;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * WebhookService - Sends POST requests when fingerprints are detected
+ *
+ * Each webhook URL has a {@link CircuitBreaker}: while a receiver is down, events for it are
+ * dropped at once instead of each one holding the webhook thread for the connect and read
+ * timeouts. With WEBHOOK_UNIDENTIFIED_COALESCE_MS set, UNIDENTIFIED events within that window
+ * are sent as one event with a count.
  */
 public class WebhookService {
+    private static final Logger log = LoggerFactory.getLogger(WebhookService.class);
+
     private final Gson gson;
-    private final ExecutorService executor;
+    private final ScheduledThreadPoolExecutor executor;
+
+    // One breaker per webhook URL
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    // UNIDENTIFIED event collecting repeats until its window closes, guarded by this
+    private WebhookPayloadWrapper pendingUnidentified;
+
+    // Metrics
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
 
     public WebhookService() {
         this.gson = new GsonBuilder().create();
-        this.executor = Executors.newSingleThreadExecutor();
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "WebhookThread");
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     /**
@@ -45,7 +74,7 @@ public class WebhookService {
         String webhookUrl = getWebhookUrl();
         
         if (webhookUrl == null || webhookUrl.isEmpty()) {
-            System.out.println("[WebhookService] No webhook URL configured, skipping notification");
+            log.debug("No webhook URL configured, skipping notification");
             return;
         }
 
@@ -61,16 +90,54 @@ public class WebhookService {
         wrapper.data.score = matchScore;
 
         // Send asynchronously
+        submit(webhookUrl, wrapper);
+    }
+
+    /**
+     * Queue an event, or drop it right away if the URL's breaker is open
+     */
+    private void submit(String webhookUrl, WebhookPayloadWrapper wrapper) {
+        if (breakerFor(webhookUrl).isOpen()) {
+            shedEvent(webhookUrl, wrapper);
+            return;
+        }
         executor.submit(() -> sendWebhook(webhookUrl, wrapper));
     }
 
+    /**
+     * Breaker for a URL, rebuilt if the breaker settings in .env have changed
+     */
+    private CircuitBreaker breakerFor(String webhookUrl) {
+        int failureThreshold = EnvLoader.getInt("WEBHOOK_BREAKER_FAILURES", 5);
+        long openMs = EnvLoader.getInt("WEBHOOK_BREAKER_OPEN_SECONDS", 30) * 1000L;
+        return breakers.compute(webhookUrl, (url, breaker) ->
+            breaker != null && breaker.hasSettings(failureThreshold, openMs)
+                ? breaker
+                : new CircuitBreaker(failureThreshold, openMs));
+    }
+
+    private void shedEvent(String webhookUrl, WebhookPayloadWrapper wrapper) {
+        breakerFor(webhookUrl).recordRejected();
+        shed.incrementAndGet();
+        log.debug("Circuit open for {}, dropped {} event", webhookUrl, wrapper.detecttype);
+        LogService.logWebhook("POST", webhookUrl, 0, "CIRCUIT_OPEN " + wrapper.detecttype);
+    }
+
     /**
      * Send webhook synchronously (for internal use)
      */
     private void sendWebhook(String webhookUrl, WebhookPayloadWrapper wrapper) {
+        CircuitBreaker breaker = breakerFor(webhookUrl);
+        if (!breaker.allowRequest()) {
+            // Opened while this event was queued
+            shed.incrementAndGet();
+            LogService.logWebhook("POST", webhookUrl, 0, "CIRCUIT_OPEN " + wrapper.detecttype);
+            return;
+        }
+        FlightEvents.WebhookSent event = new FlightEvents.WebhookSent();
+        event.begin();
         try {
-            System.out.println("[WebhookService] Sending webhook to: " + webhookUrl);
-            System.out.println("[WebhookService] Payload: " + gson.toJson(wrapper));
+            log.debug("Sending webhook to: {}", webhookUrl);
 
             URL url = new URL(webhookUrl);
             HttpURLConnection conn = (HttpURLConnection) url.openConnection();
@@ -82,7 +149,7 @@ public class WebhookService {
             String externalKey = getWebhookExternalKey();
             if (externalKey != null && !externalKey.isEmpty() && !externalKey.equals("your-webhook-bearer-token-here")) {
                 conn.setRequestProperty("Authorization", "Bearer " + externalKey);
-                System.out.println("[WebhookService] Added Bearer token to request");
+                log.debug("Added Bearer token to request");
             }
             
             conn.setDoOutput(true);
@@ -90,7 +157,9 @@ public class WebhookService {
             conn.setReadTimeout(5000);
 
             String jsonPayload = gson.toJson(wrapper);
+            log.debug("Payload: {}", jsonPayload);
             byte[] payloadBytes = jsonPayload.getBytes(StandardCharsets.UTF_8);
+            event.payloadBytes = payloadBytes.length;
 
             try (OutputStream os = conn.getOutputStream()) {
                 os.write(payloadBytes);
@@ -98,22 +167,49 @@ public class WebhookService {
             }
 
             int responseCode = conn.getResponseCode();
-            System.out.println("[WebhookService] Response code: " + responseCode);
+            event.status = responseCode;
+            log.debug("Response code: {}", responseCode);
 
             if (responseCode >= 200 && responseCode < 300) {
-                System.out.println("[WebhookService] Webhook sent successfully");
+                log.debug("Webhook sent successfully");
                 LogService.logWebhook("POST", webhookUrl, responseCode, "OK");
+                sent.incrementAndGet();
             } else {
-                System.err.println("[WebhookService] Webhook failed with code: " + responseCode);
+                log.error("Webhook failed with code: {}", responseCode);
                 LogService.logWebhook("POST", webhookUrl, responseCode, "FAILED");
+                failed.incrementAndGet();
+            }
+            // A 4xx means the receiver is up but rejected this request; only 5xx trips the breaker
+            if (responseCode >= 500) {
+                recordFailure(breaker, webhookUrl);
+            } else {
+                breaker.recordSuccess();
             }
 
             conn.disconnect();
 
         } catch (Exception e) {
-            System.err.println("[WebhookService] Failed to send webhook: " + e.getMessage());
+            event.error = e.getMessage();
+            failed.incrementAndGet();
+            recordFailure(breaker, webhookUrl);
+            log.error("Failed to send webhook: {}", e.getMessage());
             LogService.logWebhookError("POST", webhookUrl, e.getMessage());
             // Don't throw - webhook failures shouldn't break the main application
+        } finally {
+            if (event.shouldCommit()) {
+                event.url = webhookUrl;
+                event.eventType = wrapper.detecttype;
+                event.commit();
+            }
+        }
+    }
+
+    private void recordFailure(CircuitBreaker breaker, String webhookUrl) {
+        boolean wasOpen = breaker.getState() == CircuitBreaker.State.OPEN;
+        breaker.recordFailure();
+        if (!wasOpen && breaker.getState() == CircuitBreaker.State.OPEN) {
+            log.warn("Webhook circuit opened for {}, events are dropped for {}s",
+                    webhookUrl, EnvLoader.getInt("WEBHOOK_BREAKER_OPEN_SECONDS", 30));
         }
     }
 
@@ -124,7 +220,7 @@ public class WebhookService {
         String webhookUrl = getWebhookUrl();
         
         if (webhookUrl == null || webhookUrl.isEmpty()) {
-            System.out.println("[WebhookService] No webhook URL configured, skipping unidentified notification");
+            log.debug("No webhook URL configured, skipping unidentified notification");
             return;
         }
 
@@ -139,8 +235,40 @@ public class WebhookService {
         wrapper.data.timestamp = Instant.now().toString();
         wrapper.data.score = 0;
 
-        // Send asynchronously
-        executor.submit(() -> sendWebhook(webhookUrl, wrapper));
+        long windowMs = EnvLoader.getInt("WEBHOOK_UNIDENTIFIED_COALESCE_MS", 0);
+        if (windowMs <= 0) {
+            submit(webhookUrl, wrapper);
+            return;
+        }
+
+        // Collect repeats; the first event of a window is sent when the window closes
+        synchronized (this) {
+            if (pendingUnidentified != null) {
+                pendingUnidentified.data.count++;
+                coalesced.incrementAndGet();
+                return;
+            }
+            wrapper.data.count = 1;
+            pendingUnidentified = wrapper;
+        }
+        executor.schedule(this::flushUnidentified, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushUnidentified() {
+        WebhookPayloadWrapper wrapper;
+        synchronized (this) {
+            wrapper = pendingUnidentified;
+            pendingUnidentified = null;
+        }
+        String webhookUrl = getWebhookUrl();
+        if (wrapper == null || webhookUrl == null || webhookUrl.isEmpty()) {
+            return;
+        }
+        if (breakerFor(webhookUrl).isOpen()) {
+            shedEvent(webhookUrl, wrapper);
+            return;
+        }
+        sendWebhook(webhookUrl, wrapper);
     }
 
     /**
@@ -150,6 +278,31 @@ public class WebhookService {
         executor.shutdown();
     }
 
+    // ==================== Metrics ====================
+
+    public static class Stats {
+        public int queued;
+        public long sent;
+        public long failed;
+        public long shed;
+        public long coalesced;
+        public Map<String, CircuitBreaker.Stats> breakers;
+    }
+
+    public Stats getStats() {
+        Stats s = new Stats();
+        s.queued = executor.getQueue().size();
+        s.sent = sent.get();
+        s.failed = failed.get();
+        s.shed = shed.get();
+        s.coalesced = coalesced.get();
+        s.breakers = new LinkedHashMap<>();
+        for (Map.Entry<String, CircuitBreaker> entry : breakers.entrySet()) {
+            s.breakers.put(entry.getKey(), entry.getValue().getStats());
+        }
+        return s;
+    }
+
     // ==================== Payload Classes ====================
 
     public static class WebhookPayloadWrapper {
@@ -164,5 +317,7 @@ public class WebhookService {
         public String role;
         public String timestamp;
         public int score;
+        // UNIDENTIFIED events merged into this one (only set when coalescing is on)
+        public Integer count;
     }
 }